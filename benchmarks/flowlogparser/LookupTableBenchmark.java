@@ -0,0 +1,62 @@
+package flowlogparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Startup cost of reading the lookup table CSV and compiling it, or of loading its binary snapshot instead. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LookupTableBenchmark {
+
+    @Param({"10", "10000", "100000", "1000000"})
+    public int lookupRows;
+
+    private String lookupTableFile;
+    private Path cacheFile;
+    private Map<String, String> lookupTable;
+    private Map<Integer, String> protocolMap;
+
+    @Setup
+    public void setUp() throws IOException {
+        lookupTableFile = SyntheticFlowLog.lookupTable(lookupRows).toString();
+        lookupTable = FlowLogParser.loadLookupTable(lookupTableFile);
+        protocolMap = Map.of(6, "tcp", 17, "udp", 1, "icmp", 47, "gre", 50, "esp", 51, "ah", 89, "ospf", 132, "sctp");
+        cacheFile = Files.createTempFile("flowlog-bench-lookup", ".bin");
+        Files.delete(cacheFile);
+        LookupTableCache.load(Path.of(lookupTableFile), protocolMap, cacheFile);
+    }
+
+    @Benchmark
+    public Map<String, String> loadLookupTable() {
+        return FlowLogParser.loadLookupTable(lookupTableFile);
+    }
+
+    @Benchmark
+    public CompiledLookupTable loadLookupTableCache() {
+        return LookupTableCache.load(Path.of(lookupTableFile), protocolMap, cacheFile);
+    }
+
+    @Benchmark
+    public CompiledLookupTable compileLookupTable() {
+        return CompiledLookupTable.compile(lookupTable, protocolMap);
+    }
+}
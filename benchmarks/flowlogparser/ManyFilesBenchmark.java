@@ -0,0 +1,64 @@
+package flowlogparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A directory of many small flow logs, optionally with one large file among them, counted with reads on the workers
+ * ({@code ioThreads=0}), on platform I/O threads or on virtual threads ({@code -1}, Java 21+). The OS page cache is
+ * warm after the first iteration; drop it between runs to measure cold reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ManyFilesBenchmark {
+
+    @Param({"10000"})
+    public int files;
+
+    @Param({"20"})
+    public int recordsPerFile;
+
+    @Param({"0", "100"})
+    public int largeFileMb;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"0", "16", "-1"})
+    public int ioThreads;
+
+    private List<FlowLogBatch.Input> inputs;
+    private CompiledLookupTable lookup;
+
+    @Setup
+    public void setUp() throws IOException {
+        inputs = FlowLogBatch.resolve(List.of(SyntheticFlowLog.flowLogDirectory(files, recordsPerFile, largeFileMb).toString()));
+        Map<Integer, String> protocolMap = Map.of(6, "tcp", 17, "udp", 1, "icmp", 47, "gre", 50, "esp", 51, "ah", 89, "ospf", 132, "sctp");
+        lookup = CompiledLookupTable.compile(
+                FlowLogParser.loadLookupTable(SyntheticFlowLog.lookupTable(10000).toString()), protocolMap);
+    }
+
+    @Benchmark
+    public FlowLogCounts processDirectory() {
+        return new FlowLogBatch(lookup, threads, FlowLogBatch.DEFAULT_SPLIT_SIZE, null, ReportWriter.DEFAULT, ioThreads,
+                null).process(inputs);
+    }
+}
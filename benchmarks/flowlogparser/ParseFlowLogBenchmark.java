@@ -0,0 +1,63 @@
+package flowlogparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end parsing of a synthetic flow log file through the memory-mapped path and the batch pipeline. Larger
+ * inputs are selected on the command line, e.g. {@code -p fileSizeMb=100,1024,10240 -p threads=1,4,16}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseFlowLogBenchmark {
+
+    @Param({"10"})
+    public int fileSizeMb;
+
+    @Param({"10000"})
+    public int lookupRows;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"0.0", "0.9"})
+    public double skew;
+
+    private String flowLogFile;
+    private CompiledLookupTable lookup;
+
+    @Setup
+    public void setUp() throws IOException {
+        flowLogFile = SyntheticFlowLog.flowLog(fileSizeMb, skew).toString();
+        Map<Integer, String> protocolMap = Map.of(6, "tcp", 17, "udp", 1, "icmp", 47, "gre", 50, "esp", 51, "ah", 89, "ospf", 132, "sctp");
+        lookup = CompiledLookupTable.compile(
+                FlowLogParser.loadLookupTable(SyntheticFlowLog.lookupTable(lookupRows).toString()), protocolMap);
+    }
+
+    @Benchmark
+    public FlowLogCounts parseFlowLogMapped() {
+        return FlowLogParser.parseFlowLogMapped(flowLogFile, lookup, threads, null);
+    }
+
+    @Benchmark
+    public FlowLogCounts parseFlowLogConcurrently() {
+        return FlowLogParser.parseFlowLogConcurrently(flowLogFile, lookup, threads);
+    }
+}
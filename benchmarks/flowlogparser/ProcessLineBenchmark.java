@@ -0,0 +1,117 @@
+package flowlogparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of {@link FlowLogParser#processLine}, measured over a block of in-memory records. The
+ * {@code splitLine} benchmark keeps the original {@code String.split} implementation as a baseline. With
+ * {@code version=5} every record carries the v5 fields after the v2 ones, in a layout read from a header, so the
+ * projection's early stop shows: wide records should cost about as much as v2 records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessLineBenchmark {
+
+    private static final int RECORDS = 10_000;
+    private static final String V5_FIELDS = " vpc-id subnet-id instance-id tcp-flags type pkt-srcaddr pkt-dstaddr region"
+            + " az-id sublocation-type sublocation-id pkt-src-aws-service pkt-dst-aws-service flow-direction traffic-path";
+    private static final String V5_VALUES = " vpc-0a1b2c3d subnet-0a1b2c3d i-0a1b2c3d4e5f6a7b8 19 IPv4 10.0.1.201"
+            + " 172.16.0.1 us-east-1 use1-az1 - - - AMAZON ingress 1";
+
+    @Param({"10", "10000", "1000000"})
+    public int lookupRows;
+
+    @Param({"0.0", "0.9"})
+    public double skew;
+
+    @Param({"2", "5"})
+    public int version;
+
+    private CompiledLookupTable lookup;
+    private Map<String, String> lookupTable;
+    private Map<Integer, String> protocolMap;
+    private FlowLogFormat format;
+    private ByteBuffer records;
+    private int[] lineStarts;
+    private String[] lines;
+
+    @Setup
+    public void setUp() throws IOException {
+        protocolMap = new HashMap<>();
+        for (int i = 0; i < SyntheticFlowLog.PROTOCOL_NUMBERS.length; i++) {
+            protocolMap.put(SyntheticFlowLog.PROTOCOL_NUMBERS[i], SyntheticFlowLog.PROTOCOL_NAMES[i]);
+        }
+        lookupTable = FlowLogParser.loadLookupTable(SyntheticFlowLog.lookupTable(lookupRows).toString());
+        lookup = CompiledLookupTable.compile(lookupTable, protocolMap);
+
+        byte[] bytes = SyntheticFlowLog.records(RECORDS, skew);
+        format = FlowLogFormat.V2;
+        if (version == 5) {
+            format = FlowLogFormat.parse(FlowLogFormat.V2 + V5_FIELDS);
+            bytes = new String(bytes, StandardCharsets.US_ASCII).replace("\n", V5_VALUES + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        records = ByteBuffer.wrap(bytes);
+        lineStarts = new int[RECORDS + 1];
+        for (int i = 0, line = 1; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+        lines = new String(bytes, StandardCharsets.US_ASCII).split("\n");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public FlowLogCounts processLine() {
+        FlowLogCounts counts = new FlowLogCounts(lookup, format, null, null);
+        for (int i = 0; i < RECORDS; i++) {
+            FlowLogParser.processLine(records, lineStarts[i], lineStarts[i + 1] - 1, lookup, counts);
+        }
+        return counts;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public Map<String, Long> splitLine() {
+        Map<String, Long> portProtocolCounts = new HashMap<>();
+        Map<String, Long> tagCounts = new HashMap<>();
+        for (String line : lines) {
+            String[] fields = line.split(" ");
+            if (fields.length >= 8) {
+                String dstPort = fields[6].toLowerCase();
+                int protocolNumber;
+                try {
+                    protocolNumber = Integer.parseInt(fields[7]);
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                String key = dstPort + "," + protocolMap.getOrDefault(protocolNumber, "UNKNOWN").toLowerCase();
+                tagCounts.merge(lookupTable.getOrDefault(key, "Untagged"), 1L, Long::sum);
+                portProtocolCounts.merge(key, 1L, Long::sum);
+            }
+        }
+        return portProtocolCounts;
+    }
+}
@@ -0,0 +1,76 @@
+package flowlogparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of locating each line and its dstport and protocol fields in a block of records, with the SWAR
+ * {@link FlowLogTokenizer} scans against their bytewise reference implementations, on heap and direct (as mapped
+ * files are) buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+
+    private static final int RECORDS = 10_000;
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private ByteBuffer records;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = SyntheticFlowLog.records(RECORDS, 0.5);
+        records = buffer.equals("direct") ? ByteBuffer.allocateDirect(bytes.length).put(bytes).flip() : ByteBuffer.wrap(bytes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long swar() {
+        long checksum = 0;
+        int end = records.limit();
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = FlowLogTokenizer.indexOf(records, lineStart, end, FlowLogTokenizer.NEWLINES);
+            int portStart = FlowLogTokenizer.fieldStart(records, lineStart, lineEnd, 6);
+            int portEnd = FlowLogTokenizer.fieldEnd(records, portStart, lineEnd);
+            checksum += portStart + FlowLogTokenizer.fieldEnd(records, portEnd + 1, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long scalar() {
+        long checksum = 0;
+        int end = records.limit();
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = FlowLogTokenizer.indexOfScalar(records, lineStart, end, (byte) '\n');
+            int portStart = FlowLogTokenizer.fieldStartScalar(records, lineStart, lineEnd, 6);
+            int portEnd = FlowLogTokenizer.fieldEndScalar(records, portStart, lineEnd);
+            checksum += portStart + FlowLogTokenizer.fieldEndScalar(records, portEnd + 1, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,150 @@
+package flowlogparser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Generates VPC flow log v2 records and lookup tables for the benchmarks. Generated files are cached in
+ * {@code java.io.tmpdir} by their parameters, so multi-GB inputs are written once rather than once per fork.
+ *
+ * <p>Key skew is the fraction of records that hit one of 16 hot port/protocol combinations (443/tcp, 53/udp and so
+ * on); the rest spread uniformly over all ports, mostly TCP and UDP.
+ */
+final class SyntheticFlowLog {
+
+    static final int[] PROTOCOL_NUMBERS = {6, 17, 1, 47, 50, 51, 89, 132};
+    static final String[] PROTOCOL_NAMES = {"tcp", "udp", "icmp", "gre", "esp", "ah", "ospf", "sctp"};
+
+    private static final int[] HOT_PORTS = {443, 80, 53, 22, 25, 123, 3389, 8080, 993, 110, 143, 445, 3306, 5432, 6379, 9200};
+    private static final int[] HOT_PROTOCOLS = {6, 6, 17, 6, 6, 17, 6, 6, 6, 6, 6, 6, 6, 6, 6, 6};
+
+    private SyntheticFlowLog() {
+    }
+
+    /**
+     * Returns a lookup table with {@code rows} data rows. Rows cycle through every port for each protocol in turn,
+     * so tables beyond 65536 x 8 rows repeat keys, exactly as a table with duplicate rows would.
+     */
+    static Path lookupTable(int rows) throws IOException {
+        Path file = cached("lookup-" + rows + ".csv");
+        if (Files.exists(file)) {
+            return file;
+        }
+        return write(file, out -> {
+            out.write("dstport,protocol,tag\n".getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < rows; i++) {
+                String row = (i % 65536) + "," + PROTOCOL_NAMES[(i / 65536) % PROTOCOL_NAMES.length] + ",tag_" + (i % 997) + "\n";
+                out.write(row.getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+    }
+
+    /** Returns a flow log of at least {@code sizeMb} megabytes. */
+    static Path flowLog(int sizeMb, double skew) throws IOException {
+        Path file = cached("flowlog-" + sizeMb + "mb-skew" + skew + ".log");
+        if (Files.exists(file)) {
+            return file;
+        }
+        long size = (long) sizeMb << 20;
+        return write(file, out -> {
+            SplittableRandom random = new SplittableRandom(42);
+            long written = 0;
+            StringBuilder line = new StringBuilder(128);
+            while (written < size) {
+                line.setLength(0);
+                appendRecord(line, random, skew);
+                byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+                out.write(bytes);
+                written += bytes.length;
+            }
+        });
+    }
+
+    /**
+     * Returns a directory of {@code files} flow logs of {@code recordsPerFile} records each, spread over 100
+     * subdirectories like per-ENI logs, plus one file of {@code largeFileMb} megabytes if that is positive.
+     */
+    static Path flowLogDirectory(int files, int recordsPerFile, int largeFileMb) throws IOException {
+        Path directory = cached("flowlogs-" + files + "x" + recordsPerFile + "-large" + largeFileMb);
+        if (Files.exists(directory)) {
+            return directory;
+        }
+        Path temporary = Files.createTempDirectory(directory.getParent(), directory.getFileName().toString());
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder lines = new StringBuilder(recordsPerFile * 110);
+        for (int i = 0; i < files; i++) {
+            lines.setLength(0);
+            for (int record = 0; record < recordsPerFile; record++) {
+                appendRecord(lines, random, 0.5);
+            }
+            Path file = temporary.resolve("eni-" + (i % 100)).resolve("flowlog-" + i + ".log");
+            Files.createDirectories(file.getParent());
+            Files.write(file, lines.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        if (largeFileMb > 0) {
+            Files.copy(flowLog(largeFileMb, 0.5), temporary.resolve("large.log"));
+        }
+        return Files.move(temporary, directory, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns {@code count} newline-terminated records in memory. */
+    static byte[] records(int count, double skew) {
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder lines = new StringBuilder(count * 110);
+        for (int i = 0; i < count; i++) {
+            appendRecord(lines, random, skew);
+        }
+        return lines.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendRecord(StringBuilder line, SplittableRandom random, double skew) {
+        int dstPort;
+        int protocol;
+        if (random.nextDouble() < skew) {
+            int hot = random.nextInt(HOT_PORTS.length);
+            dstPort = HOT_PORTS[hot];
+            protocol = HOT_PROTOCOLS[hot];
+        } else {
+            dstPort = random.nextInt(65536);
+            int draw = random.nextInt(100);
+            protocol = draw < 70 ? 6 : draw < 95 ? 17 : PROTOCOL_NUMBERS[2 + random.nextInt(PROTOCOL_NUMBERS.length - 2)];
+        }
+        long start = 1620140761L + random.nextInt(86400);
+        line.append("2 123456789012 eni-0a1b2c3d ")
+                .append("10.0.").append(random.nextInt(256)).append('.').append(random.nextInt(256)).append(' ')
+                .append("172.16.").append(random.nextInt(256)).append('.').append(random.nextInt(256)).append(' ')
+                .append(1024 + random.nextInt(64511)).append(' ')
+                .append(dstPort).append(' ')
+                .append(protocol).append(' ')
+                .append(1 + random.nextInt(100)).append(' ')
+                .append(40 + random.nextInt(100000)).append(' ')
+                .append(start).append(' ')
+                .append(start + random.nextInt(60)).append(' ')
+                .append(random.nextInt(10) == 0 ? "REJECT" : "ACCEPT").append(" OK\n");
+    }
+
+    private static Path cached(String name) throws IOException {
+        Files.createDirectories(Paths.get(System.getProperty("java.io.tmpdir"), "flowlogparser-bench"));
+        return Paths.get(System.getProperty("java.io.tmpdir"), "flowlogparser-bench", name);
+    }
+
+    private interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static Path write(Path file, Content content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 20)) {
+            content.writeTo(out);
+        }
+        return Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
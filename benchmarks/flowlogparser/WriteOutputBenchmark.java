@@ -0,0 +1,77 @@
+package flowlogparser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing the report for a given number of distinct port/protocol combinations: the {@link ReportWriter}
+ * in each format and order, against the original map-based writer of the counts sections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WriteOutputBenchmark {
+
+    @Param({"1000", "100000", "500000"})
+    public int portProtocolCombinations;
+
+    @Param({"csv", "jsonl", "binary"})
+    public String format;
+
+    @Param({"count", "key"})
+    public String sort;
+
+    private Path outputFile;
+    private FlowLogCounts counts;
+    private ReportWriter reportWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+        CompiledLookupTable lookup = CompiledLookupTable.compile(
+                FlowLogParser.loadLookupTable(SyntheticFlowLog.lookupTable(10000).toString()),
+                Map.of(6, "tcp", 17, "udp", 1, "icmp", 47, "gre", 50, "esp", 51, "ah", 89, "ospf", 132, "sctp"));
+        counts = new FlowLogCounts(lookup);
+        for (int i = 0; i < portProtocolCombinations; i++) {
+            int key = CompiledLookupTable.key(i % 65536, lookup.protocolId(SyntheticFlowLog.PROTOCOL_NUMBERS[i / 65536 % 8]));
+            counts.add(key, lookup.tagId(key), i % 7, i % 7 * 1500L);
+        }
+        reportWriter = ReportWriter.of(format, sort);
+        outputFile = Files.createTempFile("flowlog-bench-output", ".txt");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(outputFile);
+    }
+
+    @Benchmark
+    public Path writeReport() throws IOException {
+        reportWriter.write(outputFile, counts);
+        return outputFile;
+    }
+
+    @Benchmark
+    public Path writeOutputMaps() {
+        FlowLogParser.writeOutput(outputFile.toString(), counts.tagCounts(), counts.portProtocolCounts());
+        return outputFile;
+    }
+}
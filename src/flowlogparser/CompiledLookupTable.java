@@ -0,0 +1,315 @@
+package flowlogparser;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The lookup table compiled into primitive form. Tags are interned into a small ID table (ID 0 is "Untagged") and
+ * the port/protocol combinations are indexed by an int key {@code (portId << 8) | protocolId}, so a flow record
+ * is tagged without building or hashing any String.
+ *
+ * <p>Protocol numbers are mapped to protocol IDs by name, because the lookup table matches on lower-cased protocol
+ * names: two numbers with the same name share an ID, and every unmapped number shares the "unknown" ID. Ports in
+ * canonical form (0-65535 without leading zeros) are their own port ID; other port text in the lookup table is
+ * interned into IDs above 65535 when the table is compiled, so it still matches exactly as the String key did. Port
+ * text in flow records that the lookup table does not name is interned by each worker's {@link FlowLogCounts}, into
+ * IDs from {@link #firstInputPort}, so the shared table does not grow with noisy input.
+ *
+ * <p>A compiled table is immutable, so one table can be built once and shared by every {@link FlowLogEngine} and
+ * thread in a process.
+ */
+public final class CompiledLookupTable {
+
+    static final int UNTAGGED = 0;
+    static final String UNTAGGED_NAME = "Untagged";
+    static final String UNKNOWN_PROTOCOL = "unknown";
+    /** Returned by {@link #portId} for port text the lookup table does not name. */
+    static final int NO_PORT = -1;
+    /** The most distinct port texts a {@link FlowLogCounts} interns from the input. */
+    static final int MAX_INPUT_PORTS = 1 << 16;
+
+    private static final int PROTOCOL_BITS = 8;
+    private static final int MAX_PROTOCOLS = 1 << PROTOCOL_BITS;
+    private static final int FIRST_TEXT_PORT = 65536;
+    private static final int MAX_PORT_ID = Integer.MAX_VALUE >>> PROTOCOL_BITS;
+    private static final int MAX_SNAPSHOT_STRINGS = 1 << 24;
+    private static final int MAX_SNAPSHOT_STRING_LENGTH = 1 << 20;
+
+    private final String[] protocolNames;
+    private final int[] protocolIds;
+    private final Map<Integer, Integer> otherProtocolIds;
+    private final int unknownProtocolId;
+    private final IntIntHashMap index;
+    private final String[] tags;
+
+    private final Map<String, Integer> textPortIds = new HashMap<>();
+    private final List<String> textPorts = new ArrayList<>();
+
+    private CompiledLookupTable(String[] protocolNames, int[] protocolIds, Map<Integer, Integer> otherProtocolIds,
+                                int unknownProtocolId, IntIntHashMap index, String[] tags) {
+        this.protocolNames = protocolNames;
+        this.protocolIds = protocolIds;
+        this.otherProtocolIds = otherProtocolIds;
+        this.unknownProtocolId = unknownProtocolId;
+        this.index = index;
+        this.tags = tags;
+    }
+
+    /**
+     * Compiles a lookup table of {@code "dstport,protocol"} keys to tags against the protocol map used to name
+     * protocol numbers. The port and protocol of each key are trimmed and lower-cased, as
+     * {@link FlowLogParser#loadLookupTable} does, so {@code "25,TCP"} matches TCP port 25.
+     */
+    public static CompiledLookupTable compile(Map<String, String> lookupTable, Map<Integer, String> protocolMap) {
+        Map<String, Integer> protocolIdsByName = new HashMap<>();
+        List<String> protocolNames = new ArrayList<>();
+        protocolIdsByName.put(UNKNOWN_PROTOCOL, 0);
+        protocolNames.add(UNKNOWN_PROTOCOL);
+        for (String name : protocolMap.values()) {
+            protocolIdsByName.computeIfAbsent(name.toLowerCase(), n -> {
+                protocolNames.add(n);
+                return protocolNames.size() - 1;
+            });
+        }
+        if (protocolNames.size() > MAX_PROTOCOLS) {
+            throw new IllegalArgumentException("Protocol map has more than " + MAX_PROTOCOLS + " distinct protocol names");
+        }
+
+        int[] protocolIds = new int[256];
+        for (int protocolNumber = 0; protocolNumber < protocolIds.length; protocolNumber++) {
+            protocolIds[protocolNumber] = protocolIdsByName.get(protocolMap.getOrDefault(protocolNumber, UNKNOWN_PROTOCOL).toLowerCase());
+        }
+        Map<Integer, Integer> otherProtocolIds = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : protocolMap.entrySet()) {
+            if (entry.getKey() < 0 || entry.getKey() >= protocolIds.length) {
+                otherProtocolIds.put(entry.getKey(), protocolIdsByName.get(entry.getValue().toLowerCase()));
+            }
+        }
+
+        Map<String, Integer> tagIds = new HashMap<>();
+        List<String> tags = new ArrayList<>();
+        tagIds.put(UNTAGGED_NAME, UNTAGGED);
+        tags.add(UNTAGGED_NAME);
+        Map<String, Integer> entryProtocolIds = new HashMap<>();
+        for (Map.Entry<String, String> entry : lookupTable.entrySet()) {
+            String key = entry.getKey();
+            int comma = key.indexOf(',');
+            String protocol = comma < 0 ? null : key.substring(comma + 1).trim().toLowerCase();
+            Integer protocolId = protocol == null ? null : protocolIdsByName.get(protocol);
+            if (protocolId == null) {
+                continue; // no flow record can name this protocol
+            }
+            entryProtocolIds.put(key, protocolId);
+            tagIds.computeIfAbsent(entry.getValue(), tag -> {
+                tags.add(tag);
+                return tags.size() - 1;
+            });
+        }
+
+        CompiledLookupTable compiled = new CompiledLookupTable(protocolNames.toArray(new String[0]), protocolIds,
+                otherProtocolIds, protocolIdsByName.get(UNKNOWN_PROTOCOL), new IntIntHashMap(entryProtocolIds.size()),
+                tags.toArray(new String[0]));
+        for (Map.Entry<String, Integer> entry : entryProtocolIds.entrySet()) {
+            String key = entry.getKey();
+            String port = key.substring(0, key.indexOf(',')).trim().toLowerCase();
+            compiled.index.put(key(compiled.internPort(port), entry.getValue()), tagIds.get(lookupTable.get(key)));
+        }
+        return compiled;
+    }
+
+    /** Writes the compiled table in the binary form restored by {@link #readSnapshot}. */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        writeStrings(out, protocolNames);
+        for (int protocolId : protocolIds) {
+            out.writeInt(protocolId);
+        }
+        out.writeInt(otherProtocolIds.size());
+        for (Map.Entry<Integer, Integer> entry : otherProtocolIds.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.writeInt(unknownProtocolId);
+        writeStrings(out, tags);
+        writeStrings(out, textPorts.toArray(new String[0]));
+        index.write(out);
+    }
+
+    /**
+     * Restores a table written by {@link #writeSnapshot}. Every count and length is checked against the bytes that
+     * remain before anything is allocated, so a truncated or corrupt snapshot throws
+     * {@link IllegalArgumentException} or {@link java.nio.BufferUnderflowException} instead of running out of memory.
+     */
+    static CompiledLookupTable readSnapshot(ByteBuffer in) {
+        String[] protocolNames = readStrings(in);
+        if (protocolNames.length == 0 || protocolNames.length > MAX_PROTOCOLS) {
+            throw new IllegalArgumentException("Corrupt lookup table snapshot: " + protocolNames.length + " protocols");
+        }
+        int[] protocolIds = new int[256];
+        for (int i = 0; i < protocolIds.length; i++) {
+            protocolIds[i] = checkProtocolId(in.getInt(), protocolNames);
+        }
+        Map<Integer, Integer> otherProtocolIds = new HashMap<>();
+        for (int i = checkLength(in.getInt(), 2 * Integer.BYTES, Integer.MAX_VALUE, in); i > 0; i--) {
+            otherProtocolIds.put(in.getInt(), checkProtocolId(in.getInt(), protocolNames));
+        }
+        int unknownProtocolId = checkProtocolId(in.getInt(), protocolNames);
+        String[] tags = readStrings(in);
+        String[] textPorts = readStrings(in);
+
+        CompiledLookupTable compiled = new CompiledLookupTable(protocolNames, protocolIds, otherProtocolIds,
+                unknownProtocolId, IntIntHashMap.read(in), tags);
+        for (String port : textPorts) {
+            compiled.internPort(port);
+        }
+        return compiled;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[checkLength(in.getInt(), Integer.BYTES, MAX_SNAPSHOT_STRINGS, in)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[checkLength(in.getInt(), 1, MAX_SNAPSHOT_STRING_LENGTH, in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * Returns a count or length read from a snapshot if it is within {@code max} and its elements, of at least
+     * {@code elementBytes} each, fit in the bytes remaining in {@code in}.
+     */
+    static int checkLength(int length, int elementBytes, int max, ByteBuffer in) {
+        if (length < 0 || length > max || (long) length * elementBytes > in.remaining()) {
+            throw new IllegalArgumentException("Corrupt lookup table snapshot: length " + length + " with "
+                    + in.remaining() + " bytes left");
+        }
+        return length;
+    }
+
+    private static int checkProtocolId(int protocolId, String[] protocolNames) {
+        if (protocolId < 0 || protocolId >= protocolNames.length) {
+            throw new IllegalArgumentException("Corrupt lookup table snapshot: protocol ID " + protocolId);
+        }
+        return protocolId;
+    }
+
+    static int key(int portId, int protocolId) {
+        return portId << PROTOCOL_BITS | protocolId;
+    }
+
+    static int portOf(int key) {
+        return key >>> PROTOCOL_BITS;
+    }
+
+    static int protocolOf(int key) {
+        return key & (MAX_PROTOCOLS - 1);
+    }
+
+    /** Returns the tag ID for a key, or {@link #UNTAGGED}. */
+    int tagId(int key) {
+        return index.get(key, UNTAGGED);
+    }
+
+    int protocolId(long protocolNumber) {
+        if (protocolNumber >= 0 && protocolNumber < protocolIds.length) {
+            return protocolIds[(int) protocolNumber];
+        }
+        return otherProtocolIds.getOrDefault((int) protocolNumber, unknownProtocolId);
+    }
+
+    /**
+     * Returns the port ID for lower-cased port text: the port number, the ID of text named by the lookup table, or
+     * {@link #NO_PORT}.
+     */
+    int portId(String port) {
+        int canonical = canonicalPort(port);
+        if (canonical >= 0) {
+            return canonical;
+        }
+        return textPortIds.getOrDefault(port, NO_PORT);
+    }
+
+    /** Returns the first port ID above those of the lookup table, where IDs of port text from the input start. */
+    int firstInputPort() {
+        return FIRST_TEXT_PORT + textPorts.size();
+    }
+
+    /** Returns the port ID for lower-cased port text, interning non-canonical text while the table is compiled. */
+    private int internPort(String port) {
+        int canonical = canonicalPort(port);
+        if (canonical >= 0) {
+            return canonical;
+        }
+        return textPortIds.computeIfAbsent(port, p -> {
+            if (firstInputPort() + MAX_INPUT_PORTS + 1 > MAX_PORT_ID) {
+                throw new IllegalStateException("Too many distinct non-numeric ports");
+            }
+            textPorts.add(p);
+            return FIRST_TEXT_PORT + textPorts.size() - 1;
+        });
+    }
+
+    /** Returns the text of a port ID below {@link #firstInputPort}. */
+    String portName(int portId) {
+        if (portId < FIRST_TEXT_PORT) {
+            return Integer.toString(portId);
+        }
+        return textPorts.get(portId - FIRST_TEXT_PORT);
+    }
+
+    /** Returns true for the IDs of ports that are not in canonical numeric form, which are their own text. */
+    static boolean isTextPort(int portId) {
+        return portId >= FIRST_TEXT_PORT;
+    }
+
+    String protocolName(int protocolId) {
+        return protocolNames[protocolId];
+    }
+
+    int protocolCount() {
+        return protocolNames.length;
+    }
+
+    String tag(int tagId) {
+        return tags[tagId];
+    }
+
+    int tagCount() {
+        return tags.length;
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    private static int canonicalPort(String port) {
+        int length = port.length();
+        if (length < 1 || length > 5 || (length > 1 && port.charAt(0) == '0')) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = port.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value <= 65535 ? value : -1;
+    }
+}
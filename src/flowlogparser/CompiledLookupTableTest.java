@@ -0,0 +1,122 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledLookupTableTest {
+
+    private static final Map<Integer, String> PROTOCOL_MAP = Map.of(6, "TCP", 17, "udp", 1, "icmp", 300, "tcp");
+
+    private static String tagFor(CompiledLookupTable lookup, String port, int protocolNumber) {
+        int portId = new FlowLogCounts(lookup).portId(port);
+        return lookup.tag(lookup.tagId(CompiledLookupTable.key(portId, lookup.protocolId(protocolNumber))));
+    }
+
+    @Test
+    void testTagsAreFoundByPrimitiveKey() {
+        Map<String, String> lookupTable = Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2", "0,icmp", "sv_P5");
+        CompiledLookupTable lookup = CompiledLookupTable.compile(lookupTable, PROTOCOL_MAP);
+
+        assertEquals(3, lookup.size());
+        assertEquals(4, lookup.tagCount());
+        assertEquals("sv_P1", tagFor(lookup, "25", 6));
+        assertEquals("sv_P1", tagFor(lookup, "25", 300)); // same protocol name, same tag
+        assertEquals("sv_P2", tagFor(lookup, "68", 17));
+        assertEquals("sv_P5", tagFor(lookup, "0", 1));
+        assertEquals("Untagged", tagFor(lookup, "25", 17));
+        assertEquals("Untagged", tagFor(lookup, "443", 6));
+    }
+
+    @Test
+    void testUnknownProtocolsAndTextPortsMatchLikeStringKeys() {
+        Map<String, String> lookupTable = Map.of("25,unknown", "unknown_proto", "notaport,tcp", "text_port",
+                "025,tcp", "padded_port", "25,foo", "never");
+        CompiledLookupTable lookup = CompiledLookupTable.compile(lookupTable, PROTOCOL_MAP);
+
+        assertEquals("unknown_proto", tagFor(lookup, "25", 99));
+        assertEquals("unknown_proto", tagFor(lookup, "25", -17));
+        assertEquals("text_port", tagFor(lookup, "notaport", 6));
+        assertEquals("padded_port", tagFor(lookup, "025", 6));
+        assertEquals("Untagged", tagFor(lookup, "notanotherport", 6));
+
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        int portId = counts.portId("notanotherport");
+        assertEquals(portId, counts.portId("notanotherport"));
+        assertEquals("notanotherport", counts.portName(portId));
+        assertEquals(CompiledLookupTable.NO_PORT, lookup.portId("notanotherport")); // not interned into the table
+        assertEquals("notaport", counts.portName(counts.portId("notaport")));
+        assertEquals("443", counts.portName(counts.portId("443")));
+        assertEquals("unknown", lookup.protocolName(lookup.protocolId(99)));
+    }
+
+    @Test
+    void testKeysAreTrimmedAndLowerCased() {
+        CompiledLookupTable lookup = CompiledLookupTable.compile(Map.of("25,TCP", "sv_P1", " 68 , Udp ", "sv_P2",
+                "NotAPort,tcp", "text_port"), PROTOCOL_MAP);
+
+        assertEquals("sv_P1", tagFor(lookup, "25", 6));
+        assertEquals("sv_P2", tagFor(lookup, "68", 17));
+        assertEquals("text_port", tagFor(lookup, "notaport", 6));
+    }
+
+    @Test
+    void testInputTextPortsAreMergedByName() {
+        CompiledLookupTable lookup = CompiledLookupTable.compile(Map.of("notaport,tcp", "text_port",
+                "unknown,tcp", "unknown_port"), PROTOCOL_MAP);
+        FlowLogCounts first = new FlowLogCounts(lookup);
+        FlowLogCounts second = new FlowLogCounts(lookup);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 alpha 6 1 100", lookup, first);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 beta 6 1 100", lookup, second);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 alpha 6 1 100", lookup, second);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 NotAPort 6 1 100", lookup, second);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 unknown 6 1 100", lookup, second);
+        first.merge(second);
+
+        assertEquals(Map.of("alpha,tcp", 2L, "beta,tcp", 1L, "notaport,tcp", 1L, "unknown,tcp", 1L),
+                first.portProtocolCounts());
+        assertEquals(Map.of("Untagged", 3L, "text_port", 1L, "unknown_port", 1L), first.tagCounts());
+    }
+
+    @Test
+    void testInputTextPortsAreCapped() {
+        CompiledLookupTable lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1"), PROTOCOL_MAP);
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        for (int i = 0; i < CompiledLookupTable.MAX_INPUT_PORTS; i++) {
+            counts.add(CompiledLookupTable.key(counts.portId("port" + i), lookup.protocolId(6)), 0);
+        }
+        int other = counts.portId("onemore");
+        assertEquals(other, counts.portId("andanother"));
+        assertEquals(FlowLogCounts.OTHER_PORTS, counts.portName(other));
+        assertEquals("port7", counts.portName(counts.portId("port7")));
+        counts.add(CompiledLookupTable.key(other, lookup.protocolId(6)), 0);
+        counts.add(CompiledLookupTable.key(counts.portId("andanother"), lookup.protocolId(6)), 0);
+
+        FlowLogCounts merged = new FlowLogCounts(lookup);
+        merged.merge(counts);
+        assertEquals(CompiledLookupTable.MAX_INPUT_PORTS + 1, merged.portProtocolSlots());
+        assertEquals(2L, merged.portProtocolCounts().get(FlowLogCounts.OTHER_PORTS + ",tcp"));
+        assertEquals(1L, merged.portProtocolCounts().get("port7,tcp"));
+    }
+
+    @Test
+    void testLargeLookupTable() {
+        Map<String, String> lookupTable = new HashMap<>();
+        for (int port = 0; port <= 65535; port++) {
+            lookupTable.put(port + ",tcp", "tcp_" + (port % 1000));
+            lookupTable.put(port + ",udp", "udp_" + (port % 1000));
+        }
+        CompiledLookupTable lookup = CompiledLookupTable.compile(lookupTable, PROTOCOL_MAP);
+
+        assertEquals(131072, lookup.size());
+        assertEquals(2001, lookup.tagCount());
+        for (int port = 0; port <= 65535; port += 7) {
+            assertEquals("tcp_" + (port % 1000), tagFor(lookup, Integer.toString(port), 6));
+            assertEquals("udp_" + (port % 1000), tagFor(lookup, Integer.toString(port), 17));
+            assertEquals("Untagged", tagFor(lookup, Integer.toString(port), 1));
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package flowlogparser;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Processes many flow log files in one run with one compiled lookup table. Files are scheduled on a work-stealing
+ * {@link ForkJoinPool}: each file is a task, and large uncompressed files are further split into newline-aligned
+ * mapped chunks, so one big file among many small ones does not leave the other workers idle. All counts are merged
+ * into one global result, and each file's own counts can also be written to a per-file output.
+ *
+ * <p>Files ending in {@code .gz} are decompressed on the fly. Small ones are decompressed and counted on the worker,
+ * so a directory of many small compressed files does not start a thread per file; larger ones go through a
+ * {@link FlowLogPipeline}, so decompression on the worker thread overlaps with parsing on the pipeline's parser thread.
+ *
+ * <p>With I/O threads enabled, small uncompressed files are opened and read on a separate I/O executor instead, so a
+ * worker never sits blocked in a file open or read while there is parsing to do: the bytes are handed to the
+ * work-stealing pool, which stays bounded at {@code parallelism} threads. On Java 21 and later the I/O executor runs
+ * a virtual thread per file; on earlier versions it is a bounded pool of platform threads. At most
+ * {@link #MAX_BUFFERED_BYTES} of read files wait for a worker, so memory stays bounded however many files are queued.
+ * Large and compressed files take the path above.
+ *
+ * <p>Each worker merges the counts of its files into an accumulator of its own, or counts files read by the I/O
+ * threads straight into it, and the accumulators are merged once at the end.
+ *
+ * <p>Each file is read in the layout of its own header line, if it has one, unless a {@link FlowLogFormat} is given
+ * for all of them.
+ */
+final class FlowLogBatch {
+
+    static final long DEFAULT_SPLIT_SIZE = 64L << 20;
+
+    /** {@code ioThreads} value that reads on virtual threads where available; 0 disables the I/O executor. */
+    static final int VIRTUAL_IO_THREADS = -1;
+    /** Platform I/O threads used in place of virtual threads before Java 21. */
+    static final int FALLBACK_IO_THREADS = 64;
+    /** Files up to this size are read on an I/O thread; larger ones are mapped by the workers. */
+    static final long SMALL_FILE_SIZE = 1L << 20;
+    static final int MAX_BUFFERED_BYTES = 64 << 20;
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    /** An input file and the path it is known by below its directory, glob base or list. */
+    static final class Input {
+        final Path path;
+        final Path relativePath;
+
+        Input(Path path, Path relativePath) {
+            this.path = path;
+            this.relativePath = relativePath;
+        }
+    }
+
+    private final CompiledLookupTable lookup;
+    private final int parallelism;
+    private final long splitSize;
+    private final Path perFileOutputDirectory;
+    private final ReportWriter reportWriter;
+    private final int ioThreads;
+    private final FlowLogFormat format;
+
+    /**
+     * @param perFileOutputDirectory directory for one output file per input, mirroring the inputs' relative paths,
+     *                               or null for the global output only
+     */
+    FlowLogBatch(CompiledLookupTable lookup, int parallelism, long splitSize, Path perFileOutputDirectory) {
+        this(lookup, parallelism, splitSize, perFileOutputDirectory, ReportWriter.DEFAULT, 0, null);
+    }
+
+    /**
+     * @param reportWriter writes the per-file outputs
+     * @param ioThreads    number of platform threads reading small files, {@link #VIRTUAL_IO_THREADS} for a virtual
+     *                     thread per file, or 0 to read every file on the workers
+     * @param format       layout of every file, or null to read each in the layout of its own header line
+     */
+    FlowLogBatch(CompiledLookupTable lookup, int parallelism, long splitSize, Path perFileOutputDirectory,
+                 ReportWriter reportWriter, int ioThreads, FlowLogFormat format) {
+        this.lookup = lookup;
+        this.parallelism = parallelism;
+        this.splitSize = splitSize;
+        this.perFileOutputDirectory = perFileOutputDirectory;
+        this.reportWriter = reportWriter;
+        this.ioThreads = ioThreads;
+        this.format = format;
+    }
+
+    /**
+     * Resolves input specifications to files. A specification is a file, a directory (all regular files below it),
+     * a glob such as {@code logs/2024-05-*}{@code /*.log.gz}, or {@code @file} naming a file that lists one
+     * specification per line.
+     */
+    static List<Input> resolve(List<String> specifications) throws IOException {
+        List<Input> inputs = new ArrayList<>();
+        for (String specification : specifications) {
+            if (specification.startsWith("@")) {
+                Path list = Paths.get(specification.substring(1));
+                List<String> listed = Files.readAllLines(list).stream()
+                        .map(String::trim)
+                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                        .collect(Collectors.toList());
+                inputs.addAll(resolve(listed));
+            } else if (specification.chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0)) {
+                inputs.addAll(resolveGlob(specification));
+            } else {
+                Path path = Paths.get(specification);
+                if (Files.isDirectory(path)) {
+                    inputs.addAll(walk(path, relative -> true));
+                } else if (Files.isRegularFile(path)) {
+                    inputs.add(new Input(path, path.getFileName()));
+                } else {
+                    throw new IOException("No such flow log file or directory: " + specification);
+                }
+            }
+        }
+        return inputs;
+    }
+
+    private static List<Input> resolveGlob(String glob) throws IOException {
+        int firstGlobCharacter = 0;
+        while (GLOB_CHARACTERS.indexOf(glob.charAt(firstGlobCharacter)) < 0) {
+            firstGlobCharacter++;
+        }
+        int separator = glob.lastIndexOf('/', firstGlobCharacter);
+        Path base = Paths.get(separator < 0 ? "." : separator == 0 ? "/" : glob.substring(0, separator));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(separator + 1));
+        return walk(base, matcher);
+    }
+
+    private static List<Input> walk(Path base, PathMatcher matcher) throws IOException {
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(base.relativize(file)))
+                    .sorted()
+                    .map(file -> new Input(file, base.relativize(file)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    FlowLogCounts process(List<Input> inputs) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Accumulators accumulators = new Accumulators();
+        try {
+            if (ioThreads == 0) {
+                pool.invoke(new FilesTask(inputs, accumulators));
+            } else {
+                processWithIoThreads(inputs, pool, accumulators);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        counts.mergeAll(accumulators.all(), FlowLogMetrics.GLOBAL);
+        return counts;
+    }
+
+    /**
+     * Returns an executor for blocking file reads: a virtual thread per task if the runtime has them (Java 21+,
+     * looked up reflectively because the build targets Java 17), otherwise {@code fallbackThreads} platform threads.
+     */
+    static ExecutorService newIoExecutor(int fallbackThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return newPlatformIoExecutor(fallbackThreads);
+        }
+    }
+
+    private static ExecutorService newPlatformIoExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "flowlog-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void processWithIoThreads(List<Input> inputs, ForkJoinPool pool, Accumulators accumulators) {
+        ExecutorService io = ioThreads == VIRTUAL_IO_THREADS ? newIoExecutor(FALLBACK_IO_THREADS) : newPlatformIoExecutor(ioThreads);
+        Semaphore buffered = new Semaphore(MAX_BUFFERED_BYTES);
+        try {
+            List<CompletableFuture<Void>> files = new ArrayList<>();
+            for (Input input : inputs) {
+                files.add(CompletableFuture
+                        .supplyAsync(() -> readSmallFile(input, buffered), io)
+                        .thenAcceptAsync(file -> {
+                            if (file == null) {
+                                accumulators.merge(processFile(input));
+                                return;
+                            }
+                            try {
+                                processBytes(input, file.data, accumulators);
+                            } finally {
+                                buffered.release(file.permits);
+                            }
+                        }, pool));
+            }
+            CompletableFuture.allOf(files.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            io.shutdownNow();
+        }
+    }
+
+    /** The contents of a small file and the read-ahead permits they hold until counted. */
+    private static final class SmallFile {
+        final byte[] data;
+        final int permits;
+
+        SmallFile(byte[] data, int permits) {
+            this.data = data;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * Reads an uncompressed file of at most {@link #SMALL_FILE_SIZE} once its size in read-ahead permits is free, or
+     * returns null for a file the workers read themselves. Runs on an I/O thread.
+     */
+    private static SmallFile readSmallFile(Input input, Semaphore buffered) {
+        if (input.path.getFileName().toString().endsWith(".gz")) {
+            return null;
+        }
+        try {
+            long size = Files.size(input.path);
+            if (size > SMALL_FILE_SIZE) {
+                return null;
+            }
+            int permits = (int) Math.max(1, size);
+            buffered.acquire(permits);
+            try {
+                return new SmallFile(Files.readAllBytes(input.path), permits);
+            } catch (IOException e) {
+                buffered.release(permits);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error processing flow log file " + input.path, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading flow log files", e);
+        }
+    }
+
+    /**
+     * Counts the bytes of a small file straight into a free accumulator, or into its own counts, merged afterwards,
+     * only if they are written to a per-file output.
+     */
+    private void processBytes(Input input, byte[] data, Accumulators accumulators) {
+        ByteBuffer bytes = ByteBuffer.wrap(data);
+        if (perFileOutputDirectory == null) {
+            FlowLogCounts accumulator = accumulators.take(layout(bytes));
+            try {
+                FlowLogParser.processChunk(bytes, accumulator);
+            } finally {
+                accumulators.release(accumulator);
+            }
+            return;
+        }
+        FlowLogCounts counts = FlowLogParser.processChunk(bytes, new FlowLogCounts(lookup, layout(bytes), null, null));
+        writePerFileOutput(input, counts);
+        accumulators.merge(counts);
+    }
+
+    /**
+     * The workers' accumulators, kept by the layout their records are read in, since files may differ. A worker takes
+     * a free one and releases it when done, so there are only ever as many per layout as workers using them at once.
+     */
+    private final class Accumulators {
+        private final ConcurrentMap<FlowLogFormat, Queue<FlowLogCounts>> free = new ConcurrentHashMap<>();
+
+        FlowLogCounts take(FlowLogFormat layout) {
+            FlowLogCounts accumulator = free.computeIfAbsent(layout, l -> new ConcurrentLinkedQueue<>()).poll();
+            return accumulator != null ? accumulator : new FlowLogCounts(lookup, layout, null, null);
+        }
+
+        void release(FlowLogCounts accumulator) {
+            free.get(accumulator.format()).add(accumulator);
+        }
+
+        /** Merges counts that were counted on their own into a free accumulator. */
+        void merge(FlowLogCounts counts) {
+            FlowLogCounts accumulator = take(counts.format());
+            try {
+                accumulator.merge(counts);
+            } finally {
+                release(accumulator);
+            }
+        }
+
+        List<FlowLogCounts> all() {
+            List<FlowLogCounts> all = new ArrayList<>();
+            free.values().forEach(all::addAll);
+            return all;
+        }
+    }
+
+    @SuppressWarnings("serial") // never serialized
+    private final class FilesTask extends RecursiveAction {
+        private final List<Input> inputs;
+        private final Accumulators accumulators;
+
+        FilesTask(List<Input> inputs, Accumulators accumulators) {
+            this.inputs = inputs;
+            this.accumulators = accumulators;
+        }
+
+        @Override
+        protected void compute() {
+            if (inputs.size() == 1) {
+                accumulators.merge(processFile(inputs.get(0)));
+            } else if (!inputs.isEmpty()) {
+                int middle = inputs.size() / 2;
+                invokeAll(new FilesTask(inputs.subList(0, middle), accumulators),
+                        new FilesTask(inputs.subList(middle, inputs.size()), accumulators));
+            }
+        }
+    }
+
+    @SuppressWarnings("serial") // never serialized
+    private final class ChunkTask extends RecursiveTask<FlowLogCounts> {
+        private final MappedByteBuffer chunk;
+        private final FlowLogFormat layout;
+
+        ChunkTask(MappedByteBuffer chunk, FlowLogFormat layout) {
+            this.chunk = chunk;
+            this.layout = layout;
+        }
+
+        @Override
+        protected FlowLogCounts compute() {
+            return FlowLogParser.processChunk(chunk, new FlowLogCounts(lookup, layout, null, null));
+        }
+    }
+
+    private FlowLogCounts processFile(Input input) {
+        try {
+            FlowLogCounts counts = input.path.getFileName().toString().endsWith(".gz")
+                    ? processCompressed(input.path)
+                    : processMapped(input.path);
+            writePerFileOutput(input, counts);
+            return counts;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error processing flow log file " + input.path, e);
+        }
+    }
+
+    private void writePerFileOutput(Input input, FlowLogCounts counts) {
+        if (perFileOutputDirectory != null) {
+            Path outputFile = perFileOutputDirectory.resolve(input.relativePath.toString() + ".out");
+            try {
+                Files.createDirectories(outputFile.getParent());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error creating output directory " + outputFile.getParent(), e);
+            }
+            FlowLogParser.writeOutput(outputFile.toString(), counts, reportWriter);
+        }
+    }
+
+    /**
+     * Counts a {@code .gz} file. One of at most {@link #SMALL_FILE_SIZE} compressed is decompressed and counted on the
+     * worker itself; only larger ones get a {@link FlowLogPipeline}, whose parser thread overlaps with decompression
+     * for long enough to pay for starting it.
+     */
+    private FlowLogCounts processCompressed(Path file) throws IOException {
+        if (Files.size(file) <= SMALL_FILE_SIZE) {
+            byte[] data;
+            try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(file), 1 << 16)) {
+                data = in.readAllBytes();
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(data);
+            return FlowLogParser.processChunk(bytes, new FlowLogCounts(lookup, layout(bytes), null, null));
+        }
+        try (BufferedInputStream in = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 1 << 16), 1 << 16)) {
+            FlowLogFormat layout = format != null ? format : FlowLogFormat.detect(in, FlowLogFormat.V2);
+            return new FlowLogPipeline(lookup, 1, FlowLogPipeline.DEFAULT_BATCH_SIZE, 2,
+                    () -> new FlowLogCounts(lookup, layout, null, null), FlowLogMetrics.GLOBAL)
+                    .process(Channels.newChannel(in));
+        }
+    }
+
+    /** Returns the layout for a file starting with {@code data}: the given format or the one of its header line. */
+    private FlowLogFormat layout(ByteBuffer data) {
+        return format != null ? format : FlowLogFormat.detect(data, FlowLogFormat.V2);
+    }
+
+    private FlowLogCounts processMapped(Path file) throws IOException {
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] boundaries = FlowLogParser.chunkBoundaries(channel, (int) Math.max(1, (channel.size() + splitSize - 1) / splitSize));
+            List<ChunkTask> chunks = new ArrayList<>();
+            FlowLogFormat layout = format;
+            for (int i = 0; i < boundaries.length - 1; i++) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i], boundaries[i + 1] - boundaries[i]);
+                if (layout == null) {
+                    layout = layout(chunk); // only the first chunk starts with the header
+                }
+                chunks.add(new ChunkTask(chunk, layout));
+            }
+            for (ChunkTask chunk : RecursiveTask.invokeAll(chunks)) {
+                counts.merge(chunk.join());
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,177 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogBatchTest {
+
+    private static final String TCP_25 = "2 123456789012 eni-0a1b2c3d 10.0.1.201 198.51.100.2 443 25 6 25 20000 1620140761 1620140821 ACCEPT OK\n";
+    private static final String UDP_68 = "2 123456789012 eni-4d3c2b1a 192.168.1.100 203.0.113.101 23 68 17 15 12000 1620140761 1620140821 REJECT OK\n";
+    private static final String TCP_80 = "2 123456789012 eni-5e6f7g8h 192.168.1.101 198.51.100.3 25 80 6 10 8000 1620140761 1620140821 ACCEPT OK\n";
+
+    private Path directory;
+    private CompiledLookupTable lookup;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("flow_log_batch");
+        lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"),
+                Map.of(6, "tcp", 17, "udp"));
+    }
+
+    private Path write(String relativePath, String content) throws IOException {
+        Path file = directory.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return file;
+    }
+
+    private Path writeCompressed(String relativePath, String content) throws IOException {
+        Path file = directory.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private List<String> relativePaths(List<FlowLogBatch.Input> inputs) {
+        return inputs.stream().map(input -> input.relativePath.toString()).collect(Collectors.toList());
+    }
+
+    @Test
+    void testResolveDirectoryGlobAndList() throws IOException {
+        write("a/one.log", TCP_25);
+        write("a/two.log", UDP_68);
+        writeCompressed("b/three.log.gz", TCP_80);
+
+        assertEquals(List.of("a/one.log", "a/two.log", "b/three.log.gz"),
+                relativePaths(FlowLogBatch.resolve(List.of(directory.toString()))));
+        assertEquals(List.of("a/one.log", "b/three.log.gz"),
+                relativePaths(FlowLogBatch.resolve(List.of(directory + "/*/{one.log,*.gz}"))));
+
+        Path list = write("inputs.txt", "# flow logs\n" + directory.resolve("a/two.log") + "\n\n" + directory + "/b/*.gz\n");
+        assertEquals(List.of("two.log", "three.log.gz"), relativePaths(FlowLogBatch.resolve(List.of("@" + list))));
+
+        assertThrows(IOException.class, () -> FlowLogBatch.resolve(List.of(directory.resolve("missing.log").toString())));
+    }
+
+    @Test
+    void testAggregatesPlainAndCompressedFiles() throws IOException {
+        write("a/one.log", TCP_25 + UDP_68);
+        writeCompressed("b/two.log.gz", TCP_25 + TCP_80 + TCP_80);
+        write("b/empty.log", "");
+
+        FlowLogCounts counts = new FlowLogBatch(lookup, 2, FlowLogBatch.DEFAULT_SPLIT_SIZE, null)
+                .process(FlowLogBatch.resolve(List.of(directory.toString())));
+
+        assertEquals(Map.of("sv_P1", 2L, "sv_P2", 1L, "Untagged", 2L), counts.tagCounts());
+        assertEquals(Map.of("25,tcp", 2L, "68,udp", 1L, "80,tcp", 2L), counts.portProtocolCounts());
+    }
+
+    @Test
+    void testLargeCompressedFilesAreStreamed() throws IOException {
+        SplittableRandom random = new SplittableRandom(7);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 60_000; i++) {
+            content.append("2 123456789012 eni-").append(random.nextLong()).append(" 10.0.").append(random.nextInt(256))
+                    .append('.').append(random.nextInt(256)).append(" 198.51.100.2 ").append(random.nextInt(65536))
+                    .append(i % 2 == 0 ? " 25 6 " : " 68 17 ").append(random.nextInt(100)).append(' ')
+                    .append(random.nextInt(100000)).append(" 1620140761 1620140821 ACCEPT OK\n");
+        }
+        Path file = writeCompressed("big.log.gz", content.toString());
+        writeCompressed("small.log.gz", TCP_25);
+        assertTrue(Files.size(file) > FlowLogBatch.SMALL_FILE_SIZE);
+
+        FlowLogCounts counts = new FlowLogBatch(lookup, 2, FlowLogBatch.DEFAULT_SPLIT_SIZE, null)
+                .process(FlowLogBatch.resolve(List.of(directory.toString())));
+
+        assertEquals(Map.of("sv_P1", 30_001L, "sv_P2", 30_000L), counts.tagCounts());
+    }
+
+    @Test
+    void testLargeFilesAreSplitIntoChunks() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append(i % 3 == 0 ? UDP_68 : TCP_25);
+        }
+        write("big.log", content.toString());
+
+        FlowLogCounts counts = new FlowLogBatch(lookup, 4, 1024, null)
+                .process(FlowLogBatch.resolve(List.of(directory.toString())));
+
+        assertEquals(Map.of("sv_P1", 666L, "sv_P2", 334L), counts.tagCounts());
+    }
+
+    @Test
+    void testPerFileOutput() throws IOException {
+        write("logs/a/one.log", TCP_25);
+        writeCompressed("logs/b/two.log.gz", UDP_68 + UDP_68);
+        Path outputDirectory = directory.resolve("out");
+
+        FlowLogCounts counts = new FlowLogBatch(lookup, 2, FlowLogBatch.DEFAULT_SPLIT_SIZE, outputDirectory)
+                .process(FlowLogBatch.resolve(List.of(directory.resolve("logs").toString())));
+
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 2L), counts.tagCounts());
+        assertTrue(Files.readString(outputDirectory.resolve("a/one.log.out")).contains("sv_P1,1"));
+        String second = Files.readString(outputDirectory.resolve("b/two.log.gz.out"));
+        assertTrue(second.contains("sv_P2,2"));
+        assertFalse(second.contains("sv_P1"));
+    }
+
+    @Test
+    void testIoThreadsCountTheSameAsWorkers() throws IOException {
+        StringBuilder big = new StringBuilder();
+        while (big.length() <= FlowLogBatch.SMALL_FILE_SIZE) {
+            big.append(TCP_25);
+        }
+        write("big.log", big.toString());
+        for (int i = 0; i < 50; i++) {
+            write("small/" + i + ".log", i % 2 == 0 ? TCP_25 + UDP_68 : TCP_80);
+        }
+        writeCompressed("small/compressed.log.gz", UDP_68);
+        write("small/empty.log", "");
+        List<FlowLogBatch.Input> inputs = FlowLogBatch.resolve(List.of(directory.toString()));
+
+        Map<String, Long> expected = new FlowLogBatch(lookup, 2, 1 << 16, null).process(inputs).tagCounts();
+        for (int ioThreads : new int[]{1, 4, FlowLogBatch.VIRTUAL_IO_THREADS}) {
+            FlowLogCounts counts = new FlowLogBatch(lookup, 2, 1 << 16, null, ReportWriter.DEFAULT, ioThreads, null)
+                    .process(inputs);
+            assertEquals(expected, counts.tagCounts(), "ioThreads " + ioThreads);
+            assertEquals(26, counts.tagCounts().get("sv_P2"));
+        }
+    }
+
+    @Test
+    void testIoThreadsPerFileOutputAndErrors() throws IOException {
+        write("logs/a/one.log", TCP_25);
+        writeCompressed("logs/b/two.log.gz", UDP_68 + UDP_68);
+        Path outputDirectory = directory.resolve("out");
+        List<FlowLogBatch.Input> inputs = FlowLogBatch.resolve(List.of(directory.resolve("logs").toString()));
+
+        FlowLogCounts counts = new FlowLogBatch(lookup, 2, FlowLogBatch.DEFAULT_SPLIT_SIZE, outputDirectory,
+                ReportWriter.DEFAULT, 2, null).process(inputs);
+
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 2L), counts.tagCounts());
+        assertTrue(Files.readString(outputDirectory.resolve("a/one.log.out")).contains("sv_P1,1"));
+        assertTrue(Files.readString(outputDirectory.resolve("b/two.log.gz.out")).contains("sv_P2,2"));
+
+        Files.delete(directory.resolve("logs/a/one.log"));
+        assertThrows(UncheckedIOException.class, () -> new FlowLogBatch(lookup, 2, FlowLogBatch.DEFAULT_SPLIT_SIZE,
+                null, ReportWriter.DEFAULT, FlowLogBatch.VIRTUAL_IO_THREADS, null).process(inputs));
+    }
+}
@@ -0,0 +1,402 @@
+package flowlogparser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tag and port/protocol counters for records tagged against one {@link CompiledLookupTable}. Each worker owns an
+ * instance and increments plain {@code long} slots without synchronization; the workers' instances are combined
+ * with {@link #merge} once parsing is done.
+ *
+ * <p>Tag counts are indexed by tag ID. Port/protocol counts live in slots allocated the first time a key is seen,
+ * so their memory follows the number of distinct combinations rather than the key space. Packets and bytes are
+ * summed alongside each count.
+ *
+ * <p>Port text in the input that the lookup table does not name is interned here, into IDs from
+ * {@link CompiledLookupTable#firstInputPort}, and merged by name, so the shared table stays immutable. At most
+ * {@link CompiledLookupTable#MAX_INPUT_PORTS} distinct port texts are kept; records with further ones are counted
+ * under the port {@value #OTHER_PORTS}, whose space no port field can contain.
+ *
+ * <p>The heaviest source and destination addresses of each tag, by bytes, are tracked in fixed-capacity
+ * {@link HeavyHitters} sketches created the first time the tag is seen, so memory does not grow with the number of
+ * distinct addresses.
+ *
+ * <p>Lines that could not be counted are tallied by {@link SkipReason}, alongside the number of input bytes seen,
+ * so every line read is accounted for as tagged, untagged or skipped.
+ *
+ * <p>Worker counters may carry a {@link RecordSink}, which {@link FlowLogParser#processLine} also hands each counted
+ * record to; the sink belongs to the worker and is not merged. Likewise, counters may carry {@link FlowLogWindows}
+ * that each counted record is also added to by its start time. The {@link FlowLogFormat} of worker counters is the
+ * layout their records are read with.
+ */
+final class FlowLogCounts {
+
+    /** Why a line was not counted. */
+    enum SkipReason {
+        /** Too few fields to reach the dstport and protocol. */
+        MISSING_FIELDS,
+        /** A protocol field that is not a number. */
+        INVALID_PROTOCOL,
+        /** A header line naming the fields, as at the start of flow log files delivered to S3. */
+        HEADER
+    }
+
+    /** Addresses tracked per tag and direction; comfortably more than are reported, to keep the top ones exact. */
+    static final int ADDRESS_SKETCH_CAPACITY = 64;
+    static final int TOP_ADDRESSES = 10;
+    static final String OTHER_PORTS = "(other ports)";
+
+    private static final int NO_SLOT = -1;
+
+    private final CompiledLookupTable lookup;
+    private final long[] tagCounts;
+    private final long[] tagPackets;
+    private final long[] tagBytes;
+    private final HeavyHitters[] sourceAddresses;
+    private final HeavyHitters[] destinationAddresses;
+    private final IntIntHashMap slots = new IntIntHashMap(1024);
+    private int[] slotKeys = new int[1024];
+    private long[] slotCounts = new long[1024];
+    private long[] slotPackets = new long[1024];
+    private long[] slotBytes = new long[1024];
+    private int slotCount;
+    private final long[] skippedLines = new long[SkipReason.values().length];
+    private long inputBytes;
+    private final RecordSink sink;
+    private final FlowRecord record;
+    private final FlowLogWindows windows;
+    private final FlowLogFormat format;
+    private Map<String, Integer> inputPortIds;
+    private List<String> inputPorts;
+
+    FlowLogCounts(CompiledLookupTable lookup) {
+        this(lookup, FlowLogFormat.V2, null, null);
+    }
+
+    FlowLogCounts(CompiledLookupTable lookup, FlowLogFormat format, RecordSink sink, FlowLogWindows windows) {
+        this.lookup = lookup;
+        this.format = format;
+        this.sink = sink;
+        this.windows = windows;
+        this.record = sink != null ? new FlowRecord(this) : null;
+        this.tagCounts = new long[lookup.tagCount()];
+        this.tagPackets = new long[lookup.tagCount()];
+        this.tagBytes = new long[lookup.tagCount()];
+        this.sourceAddresses = new HeavyHitters[lookup.tagCount()];
+        this.destinationAddresses = new HeavyHitters[lookup.tagCount()];
+    }
+
+    /** Counts one record with the given port/protocol key and tag ID. */
+    void add(int key, int tagId) {
+        add(key, tagId, 0, 0);
+    }
+
+    /** Counts one record with the given port/protocol key and tag ID, carrying its packets and bytes. */
+    void add(int key, int tagId, long packets, long bytes) {
+        int slot = slot(key); // may grow the slot arrays, so resolve it before indexing
+        tagCounts[tagId]++;
+        tagPackets[tagId] += packets;
+        tagBytes[tagId] += bytes;
+        slotCounts[slot]++;
+        slotPackets[slot] += packets;
+        slotBytes[slot] += bytes;
+    }
+
+    /** Returns the sketch of the tag's heaviest source addresses, creating it on first use. */
+    HeavyHitters sourceAddresses(int tagId) {
+        HeavyHitters sketch = sourceAddresses[tagId];
+        if (sketch == null) {
+            sketch = sourceAddresses[tagId] = new HeavyHitters(ADDRESS_SKETCH_CAPACITY);
+        }
+        return sketch;
+    }
+
+    /** Returns the sketch of the tag's heaviest destination addresses, creating it on first use. */
+    HeavyHitters destinationAddresses(int tagId) {
+        HeavyHitters sketch = destinationAddresses[tagId];
+        if (sketch == null) {
+            sketch = destinationAddresses[tagId] = new HeavyHitters(ADDRESS_SKETCH_CAPACITY);
+        }
+        return sketch;
+    }
+
+    /** Counts a line that was skipped for the given reason. */
+    void skip(SkipReason reason) {
+        skippedLines[reason.ordinal()]++;
+    }
+
+    /**
+     * Returns the port ID for lower-cased port text: the lookup table's ID if it names the text, else an ID interned
+     * here, or that of {@value #OTHER_PORTS} once {@link CompiledLookupTable#MAX_INPUT_PORTS} texts are interned.
+     */
+    int portId(String port) {
+        int portId = lookup.portId(port);
+        if (portId != CompiledLookupTable.NO_PORT) {
+            return portId;
+        }
+        if (inputPortIds == null) {
+            inputPortIds = new HashMap<>();
+            inputPorts = new ArrayList<>();
+        }
+        Integer inputPortId = inputPortIds.get(port);
+        if (inputPortId != null) {
+            return inputPortId;
+        }
+        if (inputPorts.size() == CompiledLookupTable.MAX_INPUT_PORTS) {
+            return otherPortsId();
+        }
+        inputPortId = lookup.firstInputPort() + inputPorts.size();
+        inputPorts.add(port);
+        inputPortIds.put(port, inputPortId);
+        return inputPortId;
+    }
+
+    /** Returns the text of a port ID from the lookup table or from {@link #portId}. */
+    String portName(int portId) {
+        int firstInputPort = lookup.firstInputPort();
+        if (portId < firstInputPort) {
+            return lookup.portName(portId);
+        }
+        return portId == otherPortsId() ? OTHER_PORTS : inputPorts.get(portId - firstInputPort);
+    }
+
+    /** Returns a port/protocol key of {@code source} as the key of the same port text and protocol in these counts. */
+    int rekey(FlowLogCounts source, int key) {
+        int portId = CompiledLookupTable.portOf(key);
+        if (source == this || portId < lookup.firstInputPort()) {
+            return key;
+        }
+        portId = portId == source.otherPortsId() ? otherPortsId() : portId(source.portName(portId));
+        return CompiledLookupTable.key(portId, CompiledLookupTable.protocolOf(key));
+    }
+
+    private int otherPortsId() {
+        return lookup.firstInputPort() + CompiledLookupTable.MAX_INPUT_PORTS;
+    }
+
+    void addInputBytes(long bytes) {
+        inputBytes += bytes;
+    }
+
+    /**
+     * Merges the final counts of every parser thread into these, timed as the {@link FlowLogMetrics.Stage#AGGREGATE}
+     * stage of {@code metrics}. Wait for the parsers first, so the stage does not include their parse time.
+     */
+    void mergeAll(Iterable<FlowLogCounts> parts, FlowLogMetrics metrics) {
+        FlowLogMetrics.Timer timer = metrics.time(FlowLogMetrics.Stage.AGGREGATE);
+        try {
+            for (FlowLogCounts part : parts) {
+                merge(part);
+            }
+        } finally {
+            timer.close();
+        }
+    }
+
+    void merge(FlowLogCounts other) {
+        for (int reason = 0; reason < skippedLines.length; reason++) {
+            skippedLines[reason] += other.skippedLines[reason];
+        }
+        inputBytes += other.inputBytes;
+        for (int slot = 0; slot < other.slotCount; slot++) {
+            int mergedSlot = slot(rekey(other, other.slotKeys[slot]));
+            slotCounts[mergedSlot] += other.slotCounts[slot];
+            slotPackets[mergedSlot] += other.slotPackets[slot];
+            slotBytes[mergedSlot] += other.slotBytes[slot];
+        }
+        for (int tagId = 0; tagId < tagCounts.length; tagId++) {
+            tagCounts[tagId] += other.tagCounts[tagId];
+            tagPackets[tagId] += other.tagPackets[tagId];
+            tagBytes[tagId] += other.tagBytes[tagId];
+            if (other.sourceAddresses[tagId] != null) {
+                sourceAddresses(tagId).merge(other.sourceAddresses[tagId]);
+            }
+            if (other.destinationAddresses[tagId] != null) {
+                destinationAddresses(tagId).merge(other.destinationAddresses[tagId]);
+            }
+        }
+    }
+
+    /** Resets every counter to zero, keeping the allocated slots for reuse. */
+    void clear() {
+        Arrays.fill(tagCounts, 0);
+        Arrays.fill(tagPackets, 0);
+        Arrays.fill(tagBytes, 0);
+        Arrays.fill(sourceAddresses, null);
+        Arrays.fill(destinationAddresses, null);
+        Arrays.fill(slotCounts, 0, slotCount, 0);
+        Arrays.fill(slotPackets, 0, slotCount, 0);
+        Arrays.fill(slotBytes, 0, slotCount, 0);
+        slots.clear();
+        slotCount = 0;
+        Arrays.fill(skippedLines, 0);
+        inputBytes = 0;
+        inputPortIds = null;
+        inputPorts = null;
+    }
+
+    private int slot(int key) {
+        int slot = slots.get(key, NO_SLOT);
+        if (slot == NO_SLOT) {
+            slot = slotCount++;
+            if (slot == slotKeys.length) {
+                slotKeys = Arrays.copyOf(slotKeys, slot * 2);
+                slotCounts = Arrays.copyOf(slotCounts, slot * 2);
+                slotPackets = Arrays.copyOf(slotPackets, slot * 2);
+                slotBytes = Arrays.copyOf(slotBytes, slot * 2);
+            }
+            slotKeys[slot] = key;
+            slots.put(key, slot);
+        }
+        return slot;
+    }
+
+    long skippedLines(SkipReason reason) {
+        return skippedLines[reason.ordinal()];
+    }
+
+    long skippedLines() {
+        long total = 0;
+        for (long skipped : skippedLines) {
+            total += skipped;
+        }
+        return total;
+    }
+
+    /** Returns the number of lines counted under a tag from the lookup table. */
+    long taggedLines() {
+        long total = 0;
+        for (int tagId = 0; tagId < tagCounts.length; tagId++) {
+            if (tagId != CompiledLookupTable.UNTAGGED) {
+                total += tagCounts[tagId];
+            }
+        }
+        return total;
+    }
+
+    long untaggedLines() {
+        return tagCounts[CompiledLookupTable.UNTAGGED];
+    }
+
+    /** Returns every line seen: tagged, untagged and skipped. */
+    long lines() {
+        return taggedLines() + untaggedLines() + skippedLines();
+    }
+
+    long inputBytes() {
+        return inputBytes;
+    }
+
+    long tagCount(int tagId) {
+        return tagCounts[tagId];
+    }
+
+    long tagPackets(int tagId) {
+        return tagPackets[tagId];
+    }
+
+    long tagBytes(int tagId) {
+        return tagBytes[tagId];
+    }
+
+    /** Returns the number of distinct port/protocol combinations; each has a slot in {@code [0, slots)}. */
+    int portProtocolSlots() {
+        return slotCount;
+    }
+
+    int portProtocolKey(int slot) {
+        return slotKeys[slot];
+    }
+
+    long portProtocolCount(int slot) {
+        return slotCounts[slot];
+    }
+
+    long portProtocolPackets(int slot) {
+        return slotPackets[slot];
+    }
+
+    long portProtocolBytes(int slot) {
+        return slotBytes[slot];
+    }
+
+    /** Returns the tag's heaviest {@code n} source addresses by bytes, or an empty list. */
+    List<HeavyHitters.Entry> topSourceAddresses(int tagId, int n) {
+        return sourceAddresses[tagId] != null ? sourceAddresses[tagId].top(n) : List.of();
+    }
+
+    /** Returns the tag's heaviest {@code n} destination addresses by bytes, or an empty list. */
+    List<HeavyHitters.Entry> topDestinationAddresses(int tagId, int n) {
+        return destinationAddresses[tagId] != null ? destinationAddresses[tagId].top(n) : List.of();
+    }
+
+    CompiledLookupTable lookup() {
+        return lookup;
+    }
+
+    /** Returns the sink counted records are also passed to, or null. */
+    RecordSink sink() {
+        return sink;
+    }
+
+    /** Returns the record reused for every call of the sink. */
+    FlowRecord record() {
+        return record;
+    }
+
+    FlowLogFormat format() {
+        return format;
+    }
+
+    /** Returns the windows counted records are also added to, or null. */
+    FlowLogWindows windows() {
+        return windows;
+    }
+
+    /** Returns the non-zero tag counts by tag name. */
+    Map<String, Long> tagCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (int tagId = 0; tagId < tagCounts.length; tagId++) {
+            if (tagCounts[tagId] > 0) {
+                counts.put(lookup.tag(tagId), tagCounts[tagId]);
+            }
+        }
+        return counts;
+    }
+
+    /** Returns the port/protocol counts keyed by {@code "port,protocol"}, as written to the output file. */
+    Map<String, Long> portProtocolCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int key = slotKeys[slot];
+            counts.put(portName(CompiledLookupTable.portOf(key)) + ","
+                    + lookup.protocolName(CompiledLookupTable.protocolOf(key)), slotCounts[slot]);
+        }
+        return counts;
+    }
+
+    /** Returns {packets, bytes} for each tag with a non-zero count, by tag name. */
+    Map<String, long[]> tagVolumes() {
+        Map<String, long[]> volumes = new HashMap<>();
+        for (int tagId = 0; tagId < tagCounts.length; tagId++) {
+            if (tagCounts[tagId] > 0) {
+                volumes.put(lookup.tag(tagId), new long[]{tagPackets[tagId], tagBytes[tagId]});
+            }
+        }
+        return volumes;
+    }
+
+    /** Returns {packets, bytes} for each port/protocol combination, keyed like {@link #portProtocolCounts}. */
+    Map<String, long[]> portProtocolVolumes() {
+        Map<String, long[]> volumes = new HashMap<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int key = slotKeys[slot];
+            volumes.put(portName(CompiledLookupTable.portOf(key)) + ","
+                    + lookup.protocolName(CompiledLookupTable.protocolOf(key)), new long[]{slotPackets[slot], slotBytes[slot]});
+        }
+        return volumes;
+    }
+}
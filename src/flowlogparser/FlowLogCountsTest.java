@@ -0,0 +1,79 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogCountsTest {
+
+    private final CompiledLookupTable lookup = CompiledLookupTable.compile(
+            Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"), Map.of(6, "tcp", 17, "udp"));
+
+    private int key(int port, int protocolNumber) {
+        return CompiledLookupTable.key(port, lookup.protocolId(protocolNumber));
+    }
+
+    @Test
+    void testMergeCombinesWorkerCounts() {
+        FlowLogCounts first = new FlowLogCounts(lookup);
+        FlowLogCounts second = new FlowLogCounts(lookup);
+        first.add(key(25, 6), lookup.tagId(key(25, 6)));
+        first.add(key(443, 6), lookup.tagId(key(443, 6)));
+        second.add(key(25, 6), lookup.tagId(key(25, 6)));
+        second.add(key(68, 17), lookup.tagId(key(68, 17)));
+
+        first.merge(second);
+
+        assertEquals(Map.of("sv_P1", 2L, "sv_P2", 1L, "Untagged", 1L), first.tagCounts());
+        assertEquals(Map.of("25,tcp", 2L, "443,tcp", 1L, "68,udp", 1L), first.portProtocolCounts());
+    }
+
+    @Test
+    void testSlotsGrowWithDistinctKeys() {
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        for (int port = 0; port <= 65535; port++) {
+            counts.add(key(port, 17), CompiledLookupTable.UNTAGGED);
+        }
+        FlowLogCounts merged = new FlowLogCounts(lookup);
+        merged.merge(counts);
+        merged.merge(counts);
+
+        Map<String, Long> portProtocolCounts = merged.portProtocolCounts();
+        assertEquals(65536, portProtocolCounts.size());
+        assertEquals(2L, portProtocolCounts.get("65535,udp"));
+        assertEquals(131072L, merged.tagCount(CompiledLookupTable.UNTAGGED));
+    }
+
+    @Test
+    void testCountsDoNotOverflowInt() {
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        counts.add(key(25, 6), lookup.tagId(key(25, 6)));
+        for (int i = 0; i < 32; i++) {
+            FlowLogCounts copy = new FlowLogCounts(lookup);
+            copy.merge(counts);
+            counts.merge(copy);
+        }
+
+        assertEquals(1L << 32, counts.tagCounts().get("sv_P1"));
+        assertEquals(1L << 32, counts.portProtocolCounts().get("25,tcp"));
+    }
+
+    @Test
+    void testMergeSumsVolumes() {
+        FlowLogCounts first = new FlowLogCounts(lookup);
+        FlowLogCounts second = new FlowLogCounts(lookup);
+        first.add(key(25, 6), lookup.tagId(key(25, 6)), 10, 1000);
+        second.add(key(25, 6), lookup.tagId(key(25, 6)), 5, 500);
+        second.add(key(68, 17), lookup.tagId(key(68, 17)), 1, 64);
+        second.add(key(68, 17), lookup.tagId(key(68, 17)));
+
+        first.merge(second);
+
+        assertArrayEquals(new long[]{15, 1500}, first.tagVolumes().get("sv_P1"));
+        assertArrayEquals(new long[]{1, 64}, first.tagVolumes().get("sv_P2"));
+        assertArrayEquals(new long[]{15, 1500}, first.portProtocolVolumes().get("25,tcp"));
+        assertEquals(2L, first.portProtocolCounts().get("68,udp"));
+    }
+}
@@ -0,0 +1,320 @@
+package flowlogparser;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embeddable flow log engine: counts flow logs from a file, a stream, a channel or bytes already in memory against a
+ * precompiled lookup table and returns the result in memory, without temporary files. Files and in-memory data are
+ * split into line-aligned chunks counted in parallel; streams and channels go through a bounded
+ * {@link FlowLogPipeline}. Each input is read in the layout of its header line, if it has one, unless a
+ * {@linkplain Builder#logFormat log format} is set. An engine holds no per-run state, so one instance can serve
+ * concurrent runs; their chunks share the engine's threads, and their stage times are recorded in the engine's own
+ * metrics rather than the process-wide ones of the command line. Closing the engine stops the threads it started.
+ *
+ * <p>Lookup table keys are {@code "dstport,protocol"} with a protocol name from the protocol map, matched without
+ * regard to case or surrounding spaces, as in the lookup table CSV.
+ *
+ * <pre>
+ * try (FlowLogEngine engine = FlowLogEngine.builder()
+ *         .lookup(CompiledLookupTable.compile(lookupTable, protocolMap))
+ *         .sinks(BytesPerPort::new)
+ *         .build()) {
+ *     FlowLogResult result = engine.process(inputStream);
+ * }
+ * </pre>
+ */
+public final class FlowLogEngine implements AutoCloseable {
+
+    private final CompiledLookupTable lookup;
+    private final int threads;
+    private final Supplier<? extends RecordSink> sinks;
+    private final FlowLogFormat format;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final FlowLogMetrics metrics = new FlowLogMetrics();
+
+    /** @param ownExecutor the executor started for this engine and shut down by {@link #close}, or null */
+    private FlowLogEngine(CompiledLookupTable lookup, int threads, Supplier<? extends RecordSink> sinks,
+                          FlowLogFormat format, Executor executor, ExecutorService ownExecutor) {
+        this.lookup = lookup;
+        this.threads = threads;
+        this.sinks = sinks;
+        this.format = format;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private CompiledLookupTable lookup;
+        private Path lookupTableFile;
+        private Path lookupCacheFile;
+        private Map<Integer, String> protocolMap = FlowLogParser.PROTOCOL_MAP;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private Supplier<? extends RecordSink> sinks;
+        private FlowLogFormat format;
+        private Executor executor;
+
+        private Builder() {
+        }
+
+        /** Uses a table compiled with {@link CompiledLookupTable#compile}, which may be shared between engines. */
+        public Builder lookup(CompiledLookupTable lookup) {
+            this.lookup = lookup;
+            return this;
+        }
+
+        /** Compiles the lookup table CSV ({@code dstport,protocol,tag} with a header row) when the engine is built. */
+        public Builder lookupTable(Path lookupTableFile) {
+            this.lookupTableFile = lookupTableFile;
+            return this;
+        }
+
+        /** Loads the compiled lookup table from a snapshot, rebuilt when the lookup table changes. */
+        public Builder lookupCache(Path lookupCacheFile) {
+            this.lookupCacheFile = lookupCacheFile;
+            return this;
+        }
+
+        /** Protocol numbers to names, for {@link #lookupTable}; defaults to the 8 built-in protocols. */
+        public Builder protocolMap(Map<Integer, String> protocolMap) {
+            this.protocolMap = protocolMap;
+            return this;
+        }
+
+        /** Number of parser threads per run; defaults to the available processors. */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Runs the chunks of files and in-memory data on {@code executor}, which the caller owns and shuts down; by
+         * default the engine starts {@link #threads} daemon threads of its own, shared by all of its runs and stopped
+         * by {@link FlowLogEngine#close}. Runs must not be started from a task on {@code executor}, which would wait
+         * for its own chunks.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /** Creates one {@link RecordSink} per parser thread of each run; the sinks are returned with the result. */
+        public Builder sinks(Supplier<? extends RecordSink> sinks) {
+            this.sinks = sinks;
+            return this;
+        }
+
+        /**
+         * Reads every input in this field layout, given as {@code ${field}} names or a header line; by default each
+         * input's header line, or the v2 layout without one. Throws {@link IllegalArgumentException} if the layout
+         * lacks {@code dstport} or {@code protocol}.
+         */
+        public Builder logFormat(String logFormat) {
+            this.format = FlowLogFormat.parse(logFormat);
+            return this;
+        }
+
+        public FlowLogEngine build() {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be positive");
+            }
+            CompiledLookupTable compiled = lookup;
+            if (compiled == null && lookupTableFile != null) {
+                compiled = lookupCacheFile != null
+                        ? LookupTableCache.load(lookupTableFile, protocolMap, lookupCacheFile)
+                        : CompiledLookupTable.compile(FlowLogParser.loadLookupTable(lookupTableFile.toString()), protocolMap);
+            }
+            if (compiled == null) {
+                throw new IllegalStateException("A lookup table or lookup table file is required");
+            }
+            if (executor != null) {
+                return new FlowLogEngine(compiled, threads, sinks, format, executor, null);
+            }
+            ExecutorService ownExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "flowlog-engine");
+                thread.setDaemon(true);
+                return thread;
+            });
+            return new FlowLogEngine(compiled, threads, sinks, format, ownExecutor, ownExecutor);
+        }
+    }
+
+    public CompiledLookupTable lookup() {
+        return lookup;
+    }
+
+    /** The stage times of this engine's runs. */
+    FlowLogMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops the threads the engine started once its runs in progress are done; an executor given to the builder is
+     * left running. The engine must not be used after it is closed.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    /** Counts a flow log file; {@code .gz} files are decompressed on the fly. */
+    public FlowLogResult process(Path flowLogFile) throws IOException {
+        if (flowLogFile.getFileName().toString().endsWith(".gz")) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(flowLogFile), 1 << 16)) {
+                return process(in);
+            }
+        }
+        FlowLogMetrics.Timer timer = metrics.time(FlowLogMetrics.Stage.PARSE);
+        try (FileChannel channel = FileChannel.open(flowLogFile, StandardOpenOption.READ)) {
+            int numberOfChunks = (int) Math.max(threads,
+                    (channel.size() + FlowLogParser.MAX_CHUNK_SIZE - 1) / FlowLogParser.MAX_CHUNK_SIZE);
+            long[] boundaries = FlowLogParser.chunkBoundaries(channel, numberOfChunks);
+            List<ByteBuffer> chunks = new ArrayList<>();
+            for (int i = 0; i < boundaries.length - 1; i++) {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i], boundaries[i + 1] - boundaries[i]);
+                chunks.add(chunk);
+            }
+            return new Run(chunks.isEmpty() ? format : layout(chunks.get(0))).processChunks(chunks);
+        } finally {
+            timer.close();
+        }
+    }
+
+    /** Counts a flow log read from {@code in}, which is not closed. */
+    public FlowLogResult process(InputStream in) throws IOException {
+        if (format != null) {
+            return process(Channels.newChannel(in), format);
+        }
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        return process(Channels.newChannel(buffered), FlowLogFormat.detect(buffered, FlowLogFormat.V2));
+    }
+
+    /** Counts a flow log read from {@code source}, which is not closed. */
+    public FlowLogResult process(ReadableByteChannel source) throws IOException {
+        return format != null ? process(source, format) : process(Channels.newInputStream(source));
+    }
+
+    private FlowLogResult process(ReadableByteChannel source, FlowLogFormat layout) throws IOException {
+        Run run = new Run(layout);
+        FlowLogMetrics.Timer timer = metrics.time(FlowLogMetrics.Stage.PARSE);
+        try {
+            FlowLogCounts counts = new FlowLogPipeline(lookup, threads, FlowLogPipeline.DEFAULT_BATCH_SIZE, 2 * threads,
+                    run::workerCounts, metrics).process(source);
+            return run.result(counts);
+        } finally {
+            timer.close();
+        }
+    }
+
+    /** Counts the flow log lines between the position and the limit of {@code data}, which is left unchanged. */
+    public FlowLogResult process(ByteBuffer data) {
+        ByteBuffer lines = data.slice();
+        List<ByteBuffer> chunks = new ArrayList<>();
+        int limit = lines.limit();
+        int start = 0;
+        for (int i = 1; i <= threads && start < limit; i++) {
+            int end = (int) Math.max(start, (long) limit * i / threads);
+            while (end > 0 && end < limit && lines.get(end - 1) != '\n') {
+                end++;
+            }
+            if (end > start) {
+                chunks.add(lines.slice(start, end - start));
+                start = end;
+            }
+        }
+        FlowLogMetrics.Timer timer = metrics.time(FlowLogMetrics.Stage.PARSE);
+        try {
+            return new Run(layout(lines)).processChunks(chunks);
+        } finally {
+            timer.close();
+        }
+    }
+
+    /** Returns the layout for an input starting with {@code data}: the given format or the one of its header line. */
+    private FlowLogFormat layout(ByteBuffer data) {
+        return format != null ? format : FlowLogFormat.detect(data, FlowLogFormat.V2);
+    }
+
+    /** The worker counters and sinks of one run. */
+    private final class Run {
+        private final List<RecordSink> runSinks = Collections.synchronizedList(new ArrayList<>());
+        private final FlowLogFormat layout;
+
+        Run(FlowLogFormat layout) {
+            this.layout = layout;
+        }
+
+        FlowLogCounts workerCounts() {
+            RecordSink sink = sinks != null ? sinks.get() : null;
+            if (sink != null) {
+                runSinks.add(sink);
+            }
+            return new FlowLogCounts(lookup, layout, sink, null);
+        }
+
+        /** Counts the chunks on the engine's executor; a single chunk is counted on the calling thread. */
+        FlowLogResult processChunks(List<ByteBuffer> chunks) {
+            List<FlowLogCounts> chunkCounts = new ArrayList<>();
+            if (chunks.size() == 1) {
+                chunkCounts.add(FlowLogParser.processChunk(chunks.get(0), workerCounts()));
+            } else if (chunks.size() > 1) {
+                ExecutorCompletionService<FlowLogCounts> completion = new ExecutorCompletionService<>(executor);
+                List<Future<FlowLogCounts>> futures = new ArrayList<>();
+                for (ByteBuffer chunk : chunks) {
+                    futures.add(completion.submit(() -> FlowLogParser.processChunk(chunk, workerCounts())));
+                }
+                try {
+                    for (int i = 0; i < chunks.size(); i++) {
+                        chunkCounts.add(completion.take().get());
+                    }
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Flow log parser failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while parsing flow log", e);
+                } finally {
+                    for (Future<FlowLogCounts> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+            FlowLogCounts counts = new FlowLogCounts(lookup);
+            counts.mergeAll(chunkCounts, metrics);
+            return result(counts);
+        }
+
+        FlowLogResult result(FlowLogCounts counts) {
+            synchronized (runSinks) {
+                return new FlowLogResult(counts, List.copyOf(runSinks));
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogEngineTest {
+
+    private static final String FLOW_LOG = "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 25 20000 1620140761 1620140821 ACCEPT OK\n"
+            + "2 123456789012 eni-1 10.0.1.202 198.51.100.2 443 68 17 5 1000 1620140761 1620140821 ACCEPT OK\n"
+            + "2 123456789012 eni-1 10.0.1.203 198.51.100.3 443 80 6 1 500 1620140761 1620140821 ACCEPT OK\n"
+            + "short line\n"
+            + "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 15 10000 1620140761 1620140821 ACCEPT OK\n";
+
+    private CompiledLookupTable lookup;
+
+    /** Sums bytes per destination port without creating an object per record. */
+    static final class BytesPerPort implements RecordSink {
+        final long[] bytes = new long[65536];
+        final Set<FlowRecord> records = new HashSet<>();
+
+        @Override
+        public void accept(FlowRecord record) {
+            if (record.dstPort() >= 0) {
+                bytes[record.dstPort()] += record.bytes();
+            }
+            records.add(record);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"), FlowLogParser.PROTOCOL_MAP);
+    }
+
+    private static void assertCounts(FlowLogResult result) {
+        assertEquals(Map.of("sv_P1", 2L, "sv_P2", 1L, "Untagged", 1L), result.tagCounts());
+        assertEquals(Map.of("25,tcp", 2L, "68,udp", 1L, "80,tcp", 1L), result.portProtocolCounts());
+        assertArrayEquals(new long[]{40, 30000}, result.tagVolumes().get("sv_P1"));
+        assertEquals(5, result.lines());
+        assertEquals(1, result.skippedLines());
+        assertEquals(FLOW_LOG.length(), result.inputBytes());
+    }
+
+    @Test
+    void testProcessesEverySource() throws IOException {
+        FlowLogEngine engine = FlowLogEngine.builder().lookup(lookup).threads(2).build();
+        byte[] bytes = FLOW_LOG.getBytes(StandardCharsets.UTF_8);
+
+        Path flowLogFile = Files.createTempFile("flow_log", ".log");
+        Files.write(flowLogFile, bytes);
+        assertCounts(engine.process(flowLogFile));
+
+        Path compressedFile = Files.createTempFile("flow_log", ".log.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressedFile))) {
+            out.write(bytes);
+        }
+        assertCounts(engine.process(compressedFile));
+
+        assertCounts(engine.process(new ByteArrayInputStream(bytes)));
+
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        assertCounts(engine.process(data));
+        assertEquals(0, data.position());
+
+        assertEquals(Map.of("10.0.1.201", 30000L), engine.process(data).topSourceAddresses("sv_P1"));
+        assertEquals(Map.of(), engine.process(data).topSourceAddresses("no such tag"));
+    }
+
+    @Test
+    void testInMemoryDataIsSplitOnLines() {
+        String flowLog = FLOW_LOG.repeat(1000);
+        for (int threads : new int[]{1, 3, 7, 16}) {
+            FlowLogResult result = FlowLogEngine.builder().lookup(lookup).threads(threads).build()
+                    .process(ByteBuffer.wrap(flowLog.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(Map.of("sv_P1", 2000L, "sv_P2", 1000L, "Untagged", 1000L), result.tagCounts(), "threads " + threads);
+            assertEquals(1000, result.skippedLines());
+        }
+        assertTrue(FlowLogEngine.builder().lookup(lookup).build().process(ByteBuffer.allocate(0)).tagCounts().isEmpty());
+    }
+
+    @Test
+    void testSinksReceiveEveryCountedRecord() {
+        FlowLogEngine engine = FlowLogEngine.builder().lookup(lookup).threads(4).sinks(BytesPerPort::new).build();
+
+        FlowLogResult result = engine.process(ByteBuffer.wrap(FLOW_LOG.repeat(100).getBytes(StandardCharsets.UTF_8)));
+
+        long[] bytes = new long[65536];
+        for (RecordSink sink : result.sinks()) {
+            BytesPerPort bytesPerPort = (BytesPerPort) sink;
+            assertTrue(bytesPerPort.records.size() <= 1, "one reused record per parser thread");
+            for (int port = 0; port < bytes.length; port++) {
+                bytes[port] += bytesPerPort.bytes[port];
+            }
+        }
+        assertEquals(3_000_000, bytes[25]);
+        assertEquals(100_000, bytes[68]);
+        assertEquals(50_000, bytes[80]);
+    }
+
+    @Test
+    void testRecordFields() throws IOException {
+        Map<String, String> seen = new HashMap<>();
+        FlowLogEngine engine = FlowLogEngine.builder().lookup(lookup).threads(1).sinks(() -> record -> {
+            seen.put(record.sourceAddress(), record.destinationAddress() + " " + record.dstPort() + " "
+                    + record.dstPortName() + " " + record.protocol() + " " + record.protocolName() + " " + record.tag()
+                    + " " + record.isTagged() + " " + record.packets() + " " + record.bytes());
+        }).build();
+
+        engine.process(new ByteArrayInputStream(FLOW_LOG.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("198.51.100.2 25 25 6 tcp sv_P1 true 15 10000", seen.get("10.0.1.201"));
+        assertEquals("198.51.100.2 68 68 17 udp sv_P2 true 5 1000", seen.get("10.0.1.202"));
+        assertEquals("198.51.100.3 80 80 6 tcp Untagged false 1 500", seen.get("10.0.1.203"));
+    }
+
+    @Test
+    void testWriteReport() throws IOException {
+        FlowLogResult result = FlowLogEngine.builder().lookup(lookup).build()
+                .process(ByteBuffer.wrap(FLOW_LOG.getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writeReport(out, "jsonl", "key");
+
+        List<String> lines = List.of(out.toString(StandardCharsets.UTF_8).split("\n"));
+        assertEquals("{\"type\":\"tag\",\"tag\":\"Untagged\",\"count\":1,\"packets\":1,\"bytes\":500}", lines.get(0));
+    }
+
+    @Test
+    void testRunsUseTheGivenExecutorAndTheEngineMetrics() {
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        AtomicInteger tasks = new AtomicInteger();
+        try {
+            FlowLogEngine engine = FlowLogEngine.builder().lookup(lookup).threads(3).executor(task -> {
+                tasks.incrementAndGet();
+                threads.execute(task);
+            }).sinks(() -> record -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }).build();
+            FlowLogMetrics.GLOBAL.reset();
+
+            for (int run = 0; run < 2; run++) {
+                assertCounts(engine.process(ByteBuffer.wrap(FLOW_LOG.getBytes(StandardCharsets.UTF_8))));
+            }
+
+            assertEquals(6, tasks.get());
+            assertTrue(engine.metrics().stageMillis(FlowLogMetrics.Stage.PARSE) >= 40);
+            assertEquals(0, FlowLogMetrics.GLOBAL.stageMillis(FlowLogMetrics.Stage.PARSE));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCloseStopsOnlyTheEngineThreads() throws InterruptedException {
+        ExecutorService given = Executors.newFixedThreadPool(2);
+        long before = engineThreads(); // engines of other tests that were not closed
+        try {
+            for (int i = 0; i < 50; i++) {
+                try (FlowLogEngine engine = FlowLogEngine.builder().lookup(lookup).threads(4).build()) {
+                    assertCounts(engine.process(ByteBuffer.wrap(FLOW_LOG.getBytes(StandardCharsets.UTF_8))));
+                }
+                try (FlowLogEngine engine = FlowLogEngine.builder().lookup(lookup).threads(2).executor(given).build()) {
+                    assertCounts(engine.process(ByteBuffer.wrap(FLOW_LOG.getBytes(StandardCharsets.UTF_8))));
+                }
+            }
+            assertFalse(given.isShutdown());
+
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (engineThreads() > before && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(before, engineThreads());
+        } finally {
+            given.shutdownNow();
+        }
+    }
+
+    private static long engineThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("flowlog-engine") && thread.isAlive())
+                .count();
+    }
+
+    @Test
+    void testBuilderRequiresLookupTable() throws IOException {
+        assertThrows(IllegalStateException.class, () -> FlowLogEngine.builder().build());
+        assertThrows(IllegalArgumentException.class, () -> FlowLogEngine.builder().lookup(lookup).threads(0).build());
+
+        Path lookupTableFile = Files.createTempFile("lookup_table", ".csv");
+        Files.writeString(lookupTableFile, "dstport,protocol,tag\n25,tcp,sv_P1\n");
+        FlowLogEngine engine = FlowLogEngine.builder().lookupTable(lookupTableFile).protocolMap(Map.of(6, "tcp")).build();
+        assertEquals("sv_P1", engine.lookup().tag(1));
+    }
+}
@@ -0,0 +1,244 @@
+package flowlogparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Follows a growing flow log file, like {@code tail -F}: appended bytes are read from the last offset and counted
+ * as complete lines arrive, and the cumulative counts are periodically written through
+ * {@link FlowLogParser#writeOutput}, atomically replacing the output file.
+ *
+ * <p>If the file shrinks below the current offset it is treated as truncated and read again from the start. If
+ * the path starts pointing to a different file (rotation), the old file is drained to its end before the new one
+ * is opened. A trailing partial line is held back until its newline is written.
+ *
+ * <p>Without a given {@link FlowLogFormat}, each file is read in the layout of its header line, checked whenever the
+ * file is read from its start, or in the v2 layout if it has none.
+ */
+final class FlowLogFollower implements Runnable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path flowLogFile;
+    private final CompiledLookupTable lookup;
+    private final Path outputFile;
+    private final long flushIntervalMillis;
+    private final long pollIntervalMillis;
+    private final ReportWriter reportWriter;
+    private final FlowLogFormat format;
+    private FlowLogCounts counts;
+
+    private FileChannel channel;
+    private Object fileKey;
+    private long offset;
+    private boolean atFileStart;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private volatile boolean stopped;
+
+    FlowLogFollower(Path flowLogFile, CompiledLookupTable lookup, Path outputFile, long flushIntervalMillis,
+                    long pollIntervalMillis) {
+        this(flowLogFile, lookup, outputFile, flushIntervalMillis, pollIntervalMillis, ReportWriter.DEFAULT, null);
+    }
+
+    /** @param format layout of the file, or null to read it in the layout of its header line */
+    FlowLogFollower(Path flowLogFile, CompiledLookupTable lookup, Path outputFile, long flushIntervalMillis,
+                    long pollIntervalMillis, ReportWriter reportWriter, FlowLogFormat format) {
+        this.flowLogFile = flowLogFile;
+        this.lookup = lookup;
+        this.outputFile = outputFile;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.reportWriter = reportWriter;
+        this.format = format;
+        this.counts = new FlowLogCounts(lookup, format != null ? format : FlowLogFormat.V2, null, null);
+    }
+
+    /**
+     * Follows the file until {@link #stop()} is called or the thread is interrupted, then flushes a last time. If
+     * following fails, the last flush is still attempted and its own failure is suppressed by the original one.
+     */
+    @Override
+    public void run() {
+        try {
+            follow();
+        } catch (RuntimeException | Error e) {
+            closeChannel();
+            try {
+                flush();
+            } catch (RuntimeException flushFailure) {
+                e.addSuppressed(flushFailure);
+            }
+            throw e;
+        }
+        closeChannel();
+        flush();
+    }
+
+    private void follow() {
+        long nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+        try {
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+                long read = poll();
+                if (System.currentTimeMillis() >= nextFlush) {
+                    flush();
+                    nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+                }
+                if (read == 0) {
+                    Thread.sleep(pollIntervalMillis);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error following flow log file: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Reads whatever has been appended since the last call and counts the complete lines. Returns the number of
+     * bytes read, which is 0 when nothing new is available or the file does not exist yet.
+     */
+    long poll() throws IOException {
+        if (channel == null && !open()) {
+            return 0;
+        }
+        long read = 0;
+        if (channel.size() < offset) {
+            offset = 0; // truncated in place
+            atFileStart = true;
+            buffer.clear();
+        }
+        read += drain();
+
+        Object currentKey = currentFileKey();
+        if (currentKey != null && !currentKey.equals(fileKey)) {
+            read += drain(); // rotated: finish the old file, including a last line without a newline
+            processPendingLine();
+            closeChannel();
+            if (open()) {
+                read += drain();
+            }
+        }
+        return read;
+    }
+
+    /** Writes the counts so far to a temporary file and moves it over the output file. */
+    void flush() {
+        Path temporary = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+        FlowLogParser.writeOutput(temporary.toString(), counts, reportWriter);
+        try {
+            Files.move(temporary, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error replacing output file: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    FlowLogCounts counts() {
+        return counts;
+    }
+
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(flowLogFile, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        fileKey = Objects.requireNonNullElse(currentFileKey(), flowLogFile);
+        offset = 0;
+        atFileStart = true;
+        buffer.clear();
+        return true;
+    }
+
+    private Object currentFileKey() throws IOException {
+        try {
+            Object key = Files.readAttributes(flowLogFile, BasicFileAttributes.class).fileKey();
+            return key != null ? key : fileKey; // file systems without file keys cannot detect rotation
+        } catch (NoSuchFileException e) {
+            return null; // between the rename and the re-creation of a rotated file
+        }
+    }
+
+    private long drain() throws IOException {
+        long total = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                return total;
+            }
+            offset += read;
+            total += read;
+            processCompleteLines();
+        }
+    }
+
+    private void processCompleteLines() {
+        int lineStart = 0;
+        for (int i = buffer.position() - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                lineStart = i + 1;
+                break;
+            }
+        }
+        detectFormat(lineStart);
+        FlowLogParser.processLines(buffer, 0, lineStart, lookup, counts);
+        buffer.flip().position(lineStart);
+        buffer.compact();
+    }
+
+    private void processPendingLine() {
+        if (buffer.position() > 0) {
+            detectFormat(buffer.position());
+            FlowLogParser.processLines(buffer, 0, buffer.position(), lookup, counts);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Switches to the layout of the file's header line once its first line, at the start of {@code [0, end)}, is
+     * complete, carrying the counts so far over to counters in the new layout.
+     */
+    private void detectFormat(int end) {
+        if (!atFileStart || end == 0) {
+            return;
+        }
+        atFileStart = false;
+        if (format != null) {
+            return;
+        }
+        FlowLogFormat detected = FlowLogFormat.detect(buffer.duplicate().position(0).limit(end).slice(), FlowLogFormat.V2);
+        if (!detected.equals(counts.format())) {
+            FlowLogCounts switched = new FlowLogCounts(lookup, detected, null, null);
+            switched.merge(counts);
+            counts = switched;
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing flow log file: " + e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogFollowerTest {
+
+    private static final String SMTP = "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6\n";
+    private static final String DHCP = "src2 dst2 1000 srcport2 dstport2 192.168.1.2 68 17\n";
+
+    private Path directory;
+    private Path flowLogFile;
+    private Path outputFile;
+    private FlowLogFollower follower;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("follow");
+        flowLogFile = directory.resolve("flow.log");
+        outputFile = directory.resolve("output.txt");
+        CompiledLookupTable lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"),
+                Map.of(6, "tcp", 17, "udp"));
+        follower = new FlowLogFollower(flowLogFile, lookup, outputFile, 60_000, 10);
+    }
+
+    private void append(String text) throws IOException {
+        Files.writeString(flowLogFile, text, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    void testReadsAppendedLinesIncrementally() throws IOException {
+        assertEquals(0, follower.poll()); // file does not exist yet
+
+        append(SMTP + SMTP);
+        follower.poll();
+        assertEquals(Map.of("sv_P1", 2L), follower.counts().tagCounts());
+
+        append(DHCP.substring(0, 20));
+        follower.poll();
+        assertEquals(Map.of("sv_P1", 2L), follower.counts().tagCounts()); // partial line is held back
+
+        append(DHCP.substring(20));
+        follower.poll();
+        assertEquals(0, follower.poll());
+        assertEquals(Map.of("sv_P1", 2L, "sv_P2", 1L), follower.counts().tagCounts());
+    }
+
+    @Test
+    void testRestartsAfterTruncation() throws IOException {
+        append(SMTP + SMTP + SMTP);
+        follower.poll();
+
+        Files.writeString(flowLogFile, DHCP);
+        follower.poll();
+
+        assertEquals(Map.of("sv_P1", 3L, "sv_P2", 1L), follower.counts().tagCounts());
+    }
+
+    @Test
+    void testReadsEachFileInTheLayoutOfItsHeader() throws IOException {
+        append("dstport protocol\n25 6\n");
+        follower.poll();
+
+        Files.move(flowLogFile, directory.resolve("flow.log.1"));
+        append("protocol dstport\n17 68\n");
+        follower.poll();
+        append("17 68\n");
+        follower.poll();
+
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 2L), follower.counts().tagCounts());
+        assertEquals(2, follower.counts().skippedLines(FlowLogCounts.SkipReason.HEADER));
+    }
+
+    @Test
+    void testDrainsRotatedFileBeforeSwitching() throws IOException {
+        append(SMTP);
+        follower.poll();
+
+        append(SMTP);
+        Files.move(flowLogFile, directory.resolve("flow.log.1"));
+        append(DHCP + DHCP);
+        follower.poll();
+
+        assertEquals(Map.of("sv_P1", 2L, "sv_P2", 2L), follower.counts().tagCounts());
+    }
+
+    @Test
+    void testFlushReplacesOutputFile() throws IOException {
+        append(SMTP);
+        follower.poll();
+        follower.flush();
+        assertTrue(Files.readString(outputFile).contains("sv_P1,1"));
+
+        append(SMTP);
+        follower.poll();
+        follower.flush();
+        assertTrue(Files.readString(outputFile).contains("sv_P1,2"));
+        assertFalse(Files.exists(directory.resolve("output.txt.tmp")));
+    }
+
+    @Test
+    void testRunStopsAndFlushes() throws Exception {
+        append(SMTP + DHCP);
+        Thread thread = new Thread(follower);
+        thread.start();
+        Thread.sleep(100);
+        follower.stop();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        String content = Files.readString(outputFile);
+        assertTrue(content.contains("sv_P1,1"));
+        assertTrue(content.contains("68,udp,1"));
+    }
+
+    @Test
+    void testFailedLastFlushDoesNotMaskTheFailure() throws IOException {
+        Files.createDirectory(flowLogFile); // reading it fails
+        CompiledLookupTable lookup = CompiledLookupTable.compile(Map.of(), Map.of(6, "tcp"));
+        FlowLogFollower failing = new FlowLogFollower(flowLogFile, lookup, directory.resolve("missing/output.txt"),
+                60_000, 10);
+
+        RuntimeException failure = assertThrows(RuntimeException.class, failing::run);
+
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertEquals(1, failure.getSuppressed().length); // the output directory does not exist either
+    }
+}
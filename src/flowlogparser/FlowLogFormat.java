@@ -0,0 +1,190 @@
+package flowlogparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The field layout of a flow log, compiled into a column projection: the ordinals of just the fields the parser
+ * reads, in line order, so {@link FlowLogParser#processLine} skips straight from one needed field to the next and
+ * stops scanning a line after the last one. A wide custom v5 record therefore costs about as much as a v2 record.
+ *
+ * <p>A layout comes from the header line that flow logs delivered to S3 start with (field names separated by
+ * spaces, such as {@code version account-id interface-id srcaddr ...}) or from a format specification in the
+ * {@code ${field}} syntax of {@code --log-format}. Names are case-insensitive and {@code _} matches {@code -}.
+ * Only {@code dstport} and {@code protocol} are required; records without addresses, packets, bytes or start time
+ * are counted without them. Inputs without a header use the default {@link #V2} layout.
+ */
+final class FlowLogFormat {
+
+    /** The columns the parser reads, in {@link #column} order. */
+    static final int SOURCE_ADDRESS = 0;
+    static final int DESTINATION_ADDRESS = 1;
+    static final int DESTINATION_PORT = 2;
+    static final int PROTOCOL = 3;
+    static final int PACKETS = 4;
+    static final int BYTES = 5;
+    static final int START = 6;
+
+    private static final String[] COLUMN_NAMES = {"srcaddr", "dstaddr", "dstport", "protocol", "packets", "bytes", "start"};
+    private static final byte[] PROTOCOL_NAME = "protocol".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_HEADER_LENGTH = 4096;
+
+    static final FlowLogFormat V2 = parse(
+            "version account-id interface-id srcaddr dstaddr srcport dstport protocol packets bytes start end action log-status");
+
+    private final String fields;
+    private final int[] ordinals;
+    private final int[] columns;
+    private final int projectedFields;
+
+    private FlowLogFormat(String fields, int[] ordinals, int[] columns) {
+        this.fields = fields;
+        this.ordinals = ordinals;
+        this.columns = columns;
+        int last = columns.length;
+        while (last > 0 && columns[last - 1] == START) {
+            last--;
+        }
+        this.projectedFields = last;
+    }
+
+    /**
+     * Compiles a header line or a {@code ${field}} format specification. Throws {@link IllegalArgumentException} if
+     * it names a field twice or lacks {@code dstport} or {@code protocol}.
+     */
+    static FlowLogFormat parse(String format) {
+        String[] names = format.trim().split("\\s+");
+        int[] columnOrdinals = new int[COLUMN_NAMES.length];
+        Arrays.fill(columnOrdinals, -1);
+        for (int ordinal = 0; ordinal < names.length; ordinal++) {
+            String name = names[ordinal];
+            if (name.startsWith("${") && name.endsWith("}")) {
+                name = name.substring(2, name.length() - 1);
+            }
+            names[ordinal] = name = name.toLowerCase(Locale.ROOT).replace('_', '-');
+            int column = Arrays.asList(COLUMN_NAMES).indexOf(name);
+            if (column >= 0) {
+                if (columnOrdinals[column] >= 0) {
+                    throw new IllegalArgumentException("Flow log format names " + name + " twice: " + format);
+                }
+                columnOrdinals[column] = ordinal;
+            }
+        }
+        if (columnOrdinals[DESTINATION_PORT] < 0 || columnOrdinals[PROTOCOL] < 0) {
+            throw new IllegalArgumentException("Flow log format needs dstport and protocol fields: " + format);
+        }
+
+        int count = 0;
+        for (int ordinal : columnOrdinals) {
+            count += ordinal >= 0 ? 1 : 0;
+        }
+        int[] ordinals = new int[count];
+        int[] columns = new int[count];
+        int step = 0;
+        for (int ordinal = 0; ordinal < names.length; ordinal++) {
+            for (int column = 0; column < columnOrdinals.length; column++) {
+                if (columnOrdinals[column] == ordinal) {
+                    ordinals[step] = ordinal;
+                    columns[step++] = column;
+                }
+            }
+        }
+        return new FlowLogFormat(String.join(" ", names), ordinals, columns);
+    }
+
+    /**
+     * Returns the layout declared by the line in {@code [start, end)} if it is a header line, one naming the
+     * {@code dstport} and {@code protocol} fields, or null.
+     */
+    static FlowLogFormat header(ByteBuffer buffer, int start, int end) {
+        if (end - start > MAX_HEADER_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String line = new String(bytes, StandardCharsets.UTF_8);
+        String normalized = " " + line.trim().toLowerCase(Locale.ROOT).replace('_', '-') + " ";
+        if (!normalized.contains(" dstport ") || !normalized.contains(" protocol ")) {
+            return null;
+        }
+        try {
+            return parse(line);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Returns the layout declared by a header on the first line of {@code data}, or {@code fallback}. */
+    static FlowLogFormat detect(ByteBuffer data, FlowLogFormat fallback) {
+        int end = Math.min(data.limit(), MAX_HEADER_LENGTH + 1);
+        int lineEnd = FlowLogTokenizer.indexOf(data, 0, end, FlowLogTokenizer.NEWLINES);
+        if (lineEnd > 0 && data.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        FlowLogFormat format = header(data, 0, lineEnd);
+        return format != null ? format : fallback;
+    }
+
+    /**
+     * Returns the layout declared by a header on the first line of {@code in}, or {@code fallback}. The stream must
+     * support {@link InputStream#mark}; it is reset to where it was, so the header is still read as a line.
+     */
+    static FlowLogFormat detect(InputStream in, FlowLogFormat fallback) throws IOException {
+        in.mark(MAX_HEADER_LENGTH + 2);
+        try {
+            byte[] bytes = in.readNBytes(MAX_HEADER_LENGTH + 2);
+            return detect(ByteBuffer.wrap(bytes), fallback);
+        } finally {
+            in.reset();
+        }
+    }
+
+    /** Returns the number of projected fields, without a trailing start time when no windows need it. */
+    int projectedFields(boolean withStart) {
+        return withStart ? columns.length : projectedFields;
+    }
+
+    /** Returns the ordinal in the line of the {@code field}th projected field; ordinals increase. */
+    int ordinal(int field) {
+        return ordinals[field];
+    }
+
+    /** Returns the column, such as {@link #DESTINATION_PORT}, of the {@code field}th projected field. */
+    int column(int field) {
+        return columns[field];
+    }
+
+    /** Returns true if {@code [start, end)}, read as the protocol field, is the {@code protocol} of a header line. */
+    static boolean isHeaderProtocol(ByteBuffer buffer, int start, int end) {
+        if (end - start != PROTOCOL_NAME.length) {
+            return false;
+        }
+        for (int i = 0; i < PROTOCOL_NAME.length; i++) {
+            if ((buffer.get(start + i) | 0x20) != PROTOCOL_NAME[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Layouts are equal when they project the same columns from the same ordinals, whatever the other fields. */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FlowLogFormat && Arrays.equals(ordinals, ((FlowLogFormat) other).ordinals)
+                && Arrays.equals(columns, ((FlowLogFormat) other).columns);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(ordinals) + Arrays.hashCode(columns);
+    }
+
+    @Override
+    public String toString() {
+        return fields;
+    }
+}
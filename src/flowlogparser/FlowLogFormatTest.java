@@ -0,0 +1,133 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogFormatTest {
+
+    private static final String V5_HEADER = "version vpc-id subnet-id instance-id interface-id account-id type srcaddr dstaddr "
+            + "srcport dstport pkt-srcaddr pkt-dstaddr protocol bytes packets start end action tcp-flags log-status";
+
+    // v5 records: dstport is field 11, protocol field 14, and bytes come before packets
+    private static final String V5_FLOW_LOG = V5_HEADER + "\n"
+            + "5 vpc-1 subnet-1 i-1 eni-1 123456789012 IPv4 10.0.1.201 198.51.100.2 443 25 10.0.1.201 198.51.100.2 6 20000 25 1620140761 1620140821 ACCEPT 2 OK\n"
+            + "5 vpc-1 subnet-1 i-1 eni-1 123456789012 IPv4 10.0.1.202 198.51.100.2 443 68 10.0.1.202 198.51.100.2 17 1000 5 1620140761 1620140821 ACCEPT 0 OK\n"
+            + "5 vpc-1 subnet-1 i-1 eni-1 123456789012 IPv4 10.0.1.203 198.51.100.3 443 80 10.0.1.203 198.51.100.3 6 500 1 1620140761 1620140821 ACCEPT 2 OK\n"
+            + "5 vpc-1 subnet-1 i-1 eni-1 123456789012 IPv4 10.0.1.201 198.51.100.2 443\n";
+
+    private CompiledLookupTable lookup;
+
+    @BeforeEach
+    void setUp() {
+        lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"), FlowLogParser.PROTOCOL_MAP);
+    }
+
+    private static void assertV5Counts(FlowLogCounts counts) {
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 1L, "Untagged", 1L), counts.tagCounts());
+        assertEquals(Map.of("25,tcp", 1L, "68,udp", 1L, "80,tcp", 1L), counts.portProtocolCounts());
+        assertArrayEquals(new long[]{25, 20000}, counts.tagVolumes().get("sv_P1"));
+        assertEquals(1, counts.skippedLines(FlowLogCounts.SkipReason.HEADER));
+        assertEquals(1, counts.skippedLines(FlowLogCounts.SkipReason.MISSING_FIELDS));
+    }
+
+    @Test
+    void testParseCompilesTheProjection() {
+        FlowLogFormat format = FlowLogFormat.parse("${version} ${account_id} ${bytes} ${Protocol} ${dstport} ${start} ${end}");
+
+        assertEquals("version account-id bytes protocol dstport start end", format.toString());
+        assertEquals(3, format.projectedFields(false));
+        assertEquals(4, format.projectedFields(true));
+        assertEquals(List.of(2, 3, 4, 5), List.of(format.ordinal(0), format.ordinal(1), format.ordinal(2), format.ordinal(3)));
+        assertEquals(List.of(FlowLogFormat.BYTES, FlowLogFormat.PROTOCOL, FlowLogFormat.DESTINATION_PORT, FlowLogFormat.START),
+                List.of(format.column(0), format.column(1), format.column(2), format.column(3)));
+
+        assertEquals(6, FlowLogFormat.V2.projectedFields(false));
+        assertEquals(9, FlowLogFormat.V2.ordinal(5));
+        assertEquals(FlowLogFormat.V2, FlowLogFormat.parse("v a i srcaddr dstaddr sp dstport protocol packets bytes start"));
+        assertEquals(FlowLogFormat.V2.hashCode(), FlowLogFormat.parse(FlowLogFormat.V2.toString()).hashCode());
+        assertNotEquals(FlowLogFormat.V2, format);
+        assertThrows(IllegalArgumentException.class, () -> FlowLogFormat.parse("${version} ${srcport} ${protocol}"));
+        assertThrows(IllegalArgumentException.class, () -> FlowLogFormat.parse("dstport protocol dstport"));
+    }
+
+    @Test
+    void testDetectReadsOnlyHeaderLines() throws IOException {
+        assertEquals(V5_HEADER, FlowLogFormat.detect(ByteBuffer.wrap(V5_FLOW_LOG.getBytes(StandardCharsets.UTF_8)), null).toString());
+        assertSame(FlowLogFormat.V2, FlowLogFormat.detect(ByteBuffer.wrap(
+                "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 100\n".getBytes(StandardCharsets.UTF_8)), FlowLogFormat.V2));
+        assertSame(FlowLogFormat.V2, FlowLogFormat.detect(ByteBuffer.allocate(0), FlowLogFormat.V2));
+
+        ByteArrayInputStream in = new ByteArrayInputStream((V5_HEADER + "\r\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals(V5_HEADER, FlowLogFormat.detect(new BufferedInputStream(in), null).toString());
+    }
+
+    @Test
+    void testCustomLayoutIsDetectedInEveryInput() throws IOException {
+        byte[] bytes = V5_FLOW_LOG.getBytes(StandardCharsets.UTF_8);
+        Path flowLogFile = Files.createTempFile("flow_log", ".log");
+        Files.write(flowLogFile, bytes);
+        Path compressedFile = Files.createTempFile("flow_log", ".log.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressedFile))) {
+            out.write(bytes);
+        }
+
+        assertV5Counts(FlowLogParser.parseFlowLogMapped(flowLogFile.toString(), lookup, 3, null));
+        assertV5Counts(FlowLogParser.parseFlowLogs(List.of(compressedFile.toString()), lookup, 2, 0, null,
+                ReportWriter.DEFAULT, null));
+        assertV5Counts(FlowLogParser.parseFlowLogs(List.of(flowLogFile.toString()), lookup, 2, 4, null,
+                ReportWriter.DEFAULT, null));
+        assertV5Counts(FlowLogParser.parseFlowLog(new ByteArrayInputStream(bytes), lookup, 2, null));
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 1L, "Untagged", 1L),
+                FlowLogEngine.builder().lookup(lookup).threads(3).build().process(ByteBuffer.wrap(bytes)).tagCounts());
+    }
+
+    @Test
+    void testGivenFormatIsUsedForEveryLine() throws IOException {
+        String flowLog = "6 25 20000\n17 68 1000\n";
+        FlowLogResult result = FlowLogEngine.builder().lookup(lookup).logFormat("${protocol} ${dstport} ${bytes}").build()
+                .process(new ByteArrayInputStream(flowLog.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 1L), result.tagCounts());
+        assertArrayEquals(new long[]{0, 20000}, result.tagVolumes().get("sv_P1"));
+    }
+
+    @Test
+    void testRepeatedHeaderLinesAreSkipped() {
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        FlowLogParser.processLine("version account-id interface-id srcaddr dstaddr srcport dstport protocol packets bytes "
+                + "start end action log-status", lookup, counts);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 100", lookup, counts);
+
+        assertEquals(1, counts.skippedLines(FlowLogCounts.SkipReason.HEADER));
+        assertEquals(0, counts.skippedLines(FlowLogCounts.SkipReason.INVALID_PROTOCOL));
+        assertEquals(Map.of("sv_P1", 1L), counts.tagCounts());
+    }
+
+    @Test
+    void testWideRecordsStopAtTheLastProjectedField() {
+        FlowLogFormat format = FlowLogFormat.parse("${dstport} ${protocol} ${version} ${vpc-id} ${flow-direction}");
+        FlowLogCounts counts = new FlowLogCounts(lookup, format, null, null);
+
+        FlowLogParser.processLine("25 6", lookup, counts);
+        FlowLogParser.processLine("68 17 5 vpc-1 ingress", lookup, counts);
+        FlowLogParser.processLine("25", lookup, counts);
+
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 1L), counts.tagCounts());
+        assertArrayEquals(new long[]{0, 0}, counts.tagVolumes().get("sv_P2"));
+        assertEquals(1, counts.skippedLines(FlowLogCounts.SkipReason.MISSING_FIELDS));
+    }
+}
@@ -0,0 +1,260 @@
+package flowlogparser;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and stage timing metrics. {@link #GLOBAL} holds the stage times of the command line, and the throughput
+ * of every parser in the process; each {@link FlowLogEngine} times its stages in its own instance. The parsers keep
+ * exact per-run line accounting in their own {@link FlowLogCounts}; here they publish running totals once per batch
+ * or chunk segment (see {@link FlowLogParser#processLines}), so the hot loop pays nothing per line and the totals can
+ * be watched while a run is in progress: as a progress line ({@link #reportProgress}), through JMX ({@link #register})
+ * and as JFR events ({@code flowlogparser.Lines} per batch, {@code flowlogparser.Stage} per stage).
+ */
+final class FlowLogMetrics implements FlowLogMetricsMBean {
+
+    static final FlowLogMetrics GLOBAL = new FlowLogMetrics();
+
+    static final String OBJECT_NAME = "flowlogparser:type=FlowLogMetrics";
+
+    /** The timed stages of a run; {@link #AGGREGATE} is the final merge of the parser threads' counts. */
+    enum Stage {
+        LOOKUP_LOAD, PARSE, AGGREGATE, WRITE
+    }
+
+    @Name("flowlogparser.Lines")
+    @Label("Flow Log Lines")
+    @Category("Flow Log Parser")
+    static final class LinesEvent extends Event {
+        @Label("Lines")
+        long lines;
+
+        @Label("Skipped Lines")
+        long skipped;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("flowlogparser.Stage")
+    @Label("Flow Log Stage")
+    @Category("Flow Log Parser")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+    }
+
+    /**
+     * Times one stage from creation to {@link #close}, recording it in the metrics and as a JFR event. Stages timed on
+     * one thread nest exclusively: the time of an inner stage, such as the final {@link Stage#AGGREGATE} of a parse,
+     * is not counted in the outer one, so the stage times add up to the wall time of the run.
+     */
+    final class Timer implements AutoCloseable {
+        private final Stage stage;
+        private final Timer outer = currentTimer.get();
+        private final long startNanos = System.nanoTime();
+        private final StageEvent event = new StageEvent();
+        private long innerNanos;
+
+        private Timer(Stage stage) {
+            this.stage = stage;
+            currentTimer.set(this);
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            stageNanos.addAndGet(stage.ordinal(), elapsedNanos - innerNanos);
+            if (outer != null) {
+                outer.innerNanos += elapsedNanos;
+            }
+            currentTimer.set(outer);
+            if (event.shouldCommit()) {
+                event.stage = stage.name().toLowerCase(Locale.ROOT);
+                event.commit();
+            }
+        }
+    }
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder untagged = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private final ThreadLocal<Timer> currentTimer = new ThreadLocal<>();
+    private volatile long startNanos = System.nanoTime();
+
+    /** Publishes the totals of one processed batch; {@code event} was begun when the batch was started. */
+    void record(LinesEvent event, long lines, long skipped, long untagged, long bytes) {
+        this.lines.add(lines);
+        this.skipped.add(skipped);
+        this.untagged.add(untagged);
+        this.bytes.add(bytes);
+        if (event.shouldCommit()) {
+            event.lines = lines;
+            event.skipped = skipped;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    Timer time(Stage stage) {
+        return new Timer(stage);
+    }
+
+    long stageMillis(Stage stage) {
+        return TimeUnit.NANOSECONDS.toMillis(stageNanos.get(stage.ordinal()));
+    }
+
+    void reset() {
+        lines.reset();
+        skipped.reset();
+        untagged.reset();
+        bytes.reset();
+        for (int stage = 0; stage < stageNanos.length(); stage++) {
+            stageNanos.set(stage, 0);
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /** Registers these metrics with the platform MBean server, once. */
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, FlowLogMetricsMBean.class),
+                    new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by an earlier run in this JVM
+        } catch (JMException e) {
+            System.err.println("Error registering metrics MBean: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Prints a progress line to {@code out} every {@code intervalMillis} on a daemon thread, with the rate over the
+     * last interval so a stall shows up as a drop to zero. Shut the returned executor down to stop.
+     */
+    ScheduledExecutorService reportProgress(long intervalMillis, PrintStream out) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flowlog-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] previous = {bytes.sum(), System.nanoTime()};
+        executor.scheduleAtFixedRate(() -> {
+            long currentBytes = bytes.sum();
+            long now = System.nanoTime();
+            out.println(progressLine(currentBytes - previous[0], now - previous[1]));
+            previous[0] = currentBytes;
+            previous[1] = now;
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    String progressLine(long intervalBytes, long intervalNanos) {
+        return String.format(Locale.ROOT, "Progress: %d lines (%d skipped, %d untagged), %.1f MB read, %.1f MB/s",
+                getLinesRead(), getLinesSkipped(), getLinesUntagged(), getBytesRead() / 1e6,
+                intervalNanos > 0 ? intervalBytes * 1e3 / intervalNanos : 0.0);
+    }
+
+    /**
+     * Returns the JSON summary of a finished run: the exact line accounting of {@code counts} and the stage times
+     * recorded here. The byte rate is the input bytes over the parse time.
+     */
+    String summary(FlowLogCounts counts) {
+        long parseNanos = stageNanos.get(Stage.PARSE.ordinal());
+        StringBuilder json = new StringBuilder("{")
+                .append("\"lines_read\":").append(counts.lines())
+                .append(",\"lines_parsed\":").append(counts.taggedLines() + counts.untaggedLines())
+                .append(",\"lines_skipped\":").append(counts.skippedLines())
+                .append(",\"skipped_by_reason\":{");
+        for (FlowLogCounts.SkipReason reason : FlowLogCounts.SkipReason.values()) {
+            json.append(reason.ordinal() > 0 ? "," : "").append('"').append(reason.name().toLowerCase(Locale.ROOT))
+                    .append("\":").append(counts.skippedLines(reason));
+        }
+        json.append("},\"lines_tagged\":").append(counts.taggedLines())
+                .append(",\"lines_untagged\":").append(counts.untaggedLines())
+                .append(",\"bytes_read\":").append(counts.inputBytes())
+                .append(",\"bytes_per_second\":").append(parseNanos > 0 ? counts.inputBytes() * 1_000_000_000L / parseNanos : 0)
+                .append(",\"stage_millis\":{");
+        for (Stage stage : Stage.values()) {
+            json.append(stage.ordinal() > 0 ? "," : "").append('"').append(stage.name().toLowerCase(Locale.ROOT))
+                    .append("\":").append(stageMillis(stage));
+        }
+        return json.append("}}").toString();
+    }
+
+    @Override
+    public long getLinesRead() {
+        return lines.sum();
+    }
+
+    @Override
+    public long getLinesParsed() {
+        return lines.sum() - skipped.sum();
+    }
+
+    @Override
+    public long getLinesSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public long getLinesTagged() {
+        return lines.sum() - skipped.sum() - untagged.sum();
+    }
+
+    @Override
+    public long getLinesUntagged() {
+        return untagged.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return elapsedNanos > 0 ? bytes.sum() * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public long getLookupLoadMillis() {
+        return stageMillis(Stage.LOOKUP_LOAD);
+    }
+
+    @Override
+    public long getParseMillis() {
+        return stageMillis(Stage.PARSE);
+    }
+
+    @Override
+    public long getAggregateMillis() {
+        return stageMillis(Stage.AGGREGATE);
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return stageMillis(Stage.WRITE);
+    }
+}
@@ -0,0 +1,33 @@
+package flowlogparser;
+
+/**
+ * JMX view of the process-wide {@link FlowLogMetrics}, registered as {@code flowlogparser:type=FlowLogMetrics}. Line
+ * and byte counts are updated as each batch or chunk segment finishes, so they trail the parsers by at most one
+ * batch per thread.
+ */
+public interface FlowLogMetricsMBean {
+
+    long getLinesRead();
+
+    long getLinesParsed();
+
+    long getLinesSkipped();
+
+    long getLinesTagged();
+
+    long getLinesUntagged();
+
+    long getBytesRead();
+
+    /** Average input bytes per second since the metrics were started or reset. */
+    double getBytesPerSecond();
+
+    long getLookupLoadMillis();
+
+    long getParseMillis();
+
+    /** Time spent in the final merge of the parser threads' counts, which runs on a single thread after parsing. */
+    long getAggregateMillis();
+
+    long getWriteMillis();
+}
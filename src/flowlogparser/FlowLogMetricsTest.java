@@ -0,0 +1,121 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogMetricsTest {
+
+    private static final String LINES = "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 25 20000 1620140761 1620140821 ACCEPT OK\n"
+            + "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 80 6 25 20000 1620140761 1620140821 ACCEPT OK\n"
+            + "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 tcp 25 20000 1620140761 1620140821 ACCEPT OK\n"
+            + "too short\n"
+            + "\n"
+            + "src1 dst1 1000 srcport1 dstport1 192.168.1.1 68 17";
+
+    private CompiledLookupTable lookup;
+
+    @BeforeEach
+    void setUp() {
+        lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"), Map.of(6, "tcp", 17, "udp"));
+        FlowLogMetrics.GLOBAL.reset();
+    }
+
+    private FlowLogCounts process(String lines) {
+        byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        FlowLogParser.processLines(ByteBuffer.wrap(bytes), 0, bytes.length, lookup, counts);
+        return counts;
+    }
+
+    @Test
+    void testLinesAreAccountedFor() {
+        FlowLogCounts counts = process(LINES);
+
+        assertEquals(6, counts.lines());
+        assertEquals(2, counts.taggedLines());
+        assertEquals(1, counts.untaggedLines());
+        assertEquals(2, counts.skippedLines(FlowLogCounts.SkipReason.MISSING_FIELDS));
+        assertEquals(1, counts.skippedLines(FlowLogCounts.SkipReason.INVALID_PROTOCOL));
+        assertEquals(LINES.length(), counts.inputBytes());
+
+        FlowLogCounts merged = new FlowLogCounts(lookup);
+        merged.merge(counts);
+        merged.merge(process("too short"));
+        assertEquals(7, merged.lines());
+        assertEquals(3, merged.skippedLines(FlowLogCounts.SkipReason.MISSING_FIELDS));
+    }
+
+    @Test
+    void testProcessLinesPublishesTotals() {
+        process(LINES);
+        process(LINES);
+
+        FlowLogMetrics metrics = FlowLogMetrics.GLOBAL;
+        assertEquals(12, metrics.getLinesRead());
+        assertEquals(6, metrics.getLinesSkipped());
+        assertEquals(6, metrics.getLinesParsed());
+        assertEquals(4, metrics.getLinesTagged());
+        assertEquals(2, metrics.getLinesUntagged());
+        assertEquals(2L * LINES.length(), metrics.getBytesRead());
+        assertTrue(metrics.progressLine(1_000_000, 1_000_000_000).startsWith("Progress: 12 lines (6 skipped, 2 untagged)"));
+    }
+
+    @Test
+    void testChunkSegmentsCoverEveryLine() {
+        String line = "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 25 20000 1620140761 1620140821 ACCEPT OK\n";
+        int lines = 3 * FlowLogParser.SEGMENT_SIZE / line.length();
+        byte[] bytes = line.repeat(lines).getBytes(StandardCharsets.UTF_8);
+
+        FlowLogCounts counts = FlowLogParser.processChunk(ByteBuffer.wrap(bytes), lookup);
+
+        assertEquals(lines, counts.taggedLines());
+        assertEquals(0, counts.skippedLines());
+        assertEquals(counts.lines(), FlowLogMetrics.GLOBAL.getLinesRead());
+    }
+
+    @Test
+    void testSummary() {
+        FlowLogCounts counts = process(LINES);
+        try (FlowLogMetrics.Timer timer = FlowLogMetrics.GLOBAL.time(FlowLogMetrics.Stage.WRITE)) {
+            assertNotNull(timer);
+        }
+
+        String summary = FlowLogMetrics.GLOBAL.summary(counts);
+
+        assertTrue(summary.startsWith("{\"lines_read\":6,\"lines_parsed\":3,\"lines_skipped\":3,"
+                + "\"skipped_by_reason\":{\"missing_fields\":2,\"invalid_protocol\":1,\"header\":0},"
+                + "\"lines_tagged\":2,\"lines_untagged\":1,\"bytes_read\":" + LINES.length() + ","), summary);
+        assertTrue(summary.matches(".*\"stage_millis\":\\{\"lookup_load\":\\d+,\"parse\":\\d+,\"aggregate\":\\d+,\"write\":\\d+}}"),
+                summary);
+    }
+
+    @Test
+    void testNestedStagesAreExclusive() throws InterruptedException {
+        FlowLogMetrics.Timer parse = FlowLogMetrics.GLOBAL.time(FlowLogMetrics.Stage.PARSE);
+        FlowLogMetrics.Timer aggregate = FlowLogMetrics.GLOBAL.time(FlowLogMetrics.Stage.AGGREGATE);
+        Thread.sleep(50);
+        aggregate.close();
+        parse.close();
+
+        assertTrue(FlowLogMetrics.GLOBAL.stageMillis(FlowLogMetrics.Stage.AGGREGATE) >= 50);
+        assertTrue(FlowLogMetrics.GLOBAL.stageMillis(FlowLogMetrics.Stage.PARSE) < 50);
+    }
+
+    @Test
+    void testRegisterMBean() throws Exception {
+        FlowLogMetrics.GLOBAL.register();
+        FlowLogMetrics.GLOBAL.register(); // already registered
+        process(LINES);
+
+        assertEquals(6L, ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(FlowLogMetrics.OBJECT_NAME), "LinesRead"));
+    }
+}
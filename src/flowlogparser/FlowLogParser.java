@@ -0,0 +1,691 @@
+package flowlogparser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+public class FlowLogParser {
+
+    static final Map<Integer, String> PROTOCOL_MAP = Map.of(
+            1, "icmp",
+            6, "tcp",
+            17, "udp",
+            47, "gre",
+            50, "esp",
+            51, "ah",
+            89, "ospf",
+            132, "sctp"
+    );
+
+    // A single MappedByteBuffer cannot exceed Integer.MAX_VALUE bytes, so larger files get more chunks than cores.
+    static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    // Mapped chunks are processed, and their metrics published, in line-aligned segments of about this size.
+    static final int SEGMENT_SIZE = 4 << 20;
+
+    private static final String USAGE = "Usage: java flowlogparser.FlowLogParser [options] <flow_log_file> <lookup_table_file> <output_file> [protocol_map_file]\n"
+            + "<flow_log_file> may also be a directory, a glob such as 'logs/*/*.log.gz', or @<file> listing one of those per line;\n"
+            + "every matching file is counted into the same output, and .gz files are decompressed on the fly.\n"
+            + "Use - as <flow_log_file> to read the flow log from standard input.\n"
+            + "Options:\n"
+            + "  --threads=<n>               number of parser threads (default: available processors)\n"
+            + "  --io-threads=<n|virtual>    read small files of a directory or glob on <n> I/O threads, or a virtual thread\n"
+            + "                              per file (Java 21+), leaving the parser threads to parse\n"
+            + "  --lookup-cache=<file>       load the compiled lookup table from a binary snapshot, rebuilt when the CSV changes\n"
+            + "  --per-file-output=<dir>     also write each input file's own counts below <dir>, as <relative path>.out\n"
+            + "  --output-format=<format>    csv (default), jsonl or binary\n"
+            + "  --sort=<order>              order rows by count (default, highest first) or by key\n"
+            + "  --progress[=<seconds>]      print throughput to stderr every <seconds> (default 10)\n"
+            + "  --summary=<file>            write a JSON summary of lines, bytes and stage times; - for stderr\n"
+            + "  --jmx                       expose live metrics as the MBean " + FlowLogMetrics.OBJECT_NAME + "\n"
+            + "  --window=<duration>         write tag and port/protocol counts per tumbling window of record start time\n"
+            + "                              (e.g. 1m, 5m, 1h), each as soon as it closes; reads a single file or -\n"
+            + "  --lateness=<duration>       how far a start time may trail the latest one seen and still be counted in\n"
+            + "                              its window (default: the window length; at most "
+            + (FlowLogWindows.MAX_OPEN_WINDOWS - 2) + " windows)\n"
+            + "  --log-format=<format>       field layout of the flow log, as '${version} ${srcaddr} ...' or field names\n"
+            + "                              (default: the header line of each input if it has one, else the v2 layout)\n"
+            + "  --follow                    keep reading the flow log as it grows and periodically rewrite the output\n"
+            + "  --flush-interval=<seconds>  how often --follow rewrites the output (default 10)";
+
+    private static final Set<String> OPTIONS = Set.of("follow", "flush-interval", "threads", "io-threads", "lookup-cache", "per-file-output",
+            "output-format", "sort", "progress", "summary", "jmx", "window", "lateness",
+            "log-format");
+
+    public static void main(String[] args) {
+        List<String> arguments = new ArrayList<>();
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals), equals < 0 ? "" : arg.substring(equals + 1));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() < 3 || arguments.size() > 4 || !OPTIONS.containsAll(options.keySet())) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        String flowLogFile = arguments.get(0);
+        String lookupTableFile = arguments.get(1);
+        String outputFile = arguments.get(2);
+        String protocolMapFile = arguments.size() == 4 ? arguments.get(3) : null;
+
+        FlowLogMetrics metrics = FlowLogMetrics.GLOBAL;
+        if (options.containsKey("jmx")) {
+            metrics.register();
+        }
+        ScheduledExecutorService progress = options.containsKey("progress")
+                ? metrics.reportProgress(TimeUnit.SECONDS.toMillis(Long.parseLong(options.get("progress").isEmpty()
+                        ? "10" : options.get("progress"))), System.err)
+                : null;
+        try {
+            Map<Integer, String> protocolMap = protocolMapFile != null ? loadProtocolMap(protocolMapFile) : PROTOCOL_MAP;
+            CompiledLookupTable lookup;
+            FlowLogMetrics.Timer lookupTimer = metrics.time(FlowLogMetrics.Stage.LOOKUP_LOAD);
+            try {
+                lookup = options.containsKey("lookup-cache")
+                        ? LookupTableCache.load(Paths.get(lookupTableFile), protocolMap, Paths.get(options.get("lookup-cache")))
+                        : CompiledLookupTable.compile(loadLookupTable(lookupTableFile), protocolMap);
+            } finally {
+                lookupTimer.close();
+            }
+            FlowLogFormat format = options.containsKey("log-format") ? FlowLogFormat.parse(options.get("log-format")) : null;
+            ReportWriter reportWriter = ReportWriter.of(options.getOrDefault("output-format", "csv"),
+                    options.getOrDefault("sort", "count"));
+
+            if (options.containsKey("follow")) {
+                long flushIntervalMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("flush-interval", "10")));
+                follow(flowLogFile, lookup, outputFile, flushIntervalMillis, reportWriter, format);
+                return;
+            }
+
+            int numberOfThreads = Integer.parseInt(options.getOrDefault("threads",
+                    Integer.toString(Runtime.getRuntime().availableProcessors())));
+            String ioThreadsOption = options.getOrDefault("io-threads", "0");
+            int ioThreads = ioThreadsOption.equals("virtual") ? FlowLogBatch.VIRTUAL_IO_THREADS : Integer.parseInt(ioThreadsOption);
+            Path perFileOutputDirectory = options.containsKey("per-file-output") ? Paths.get(options.get("per-file-output")) : null;
+            FlowLogCounts counts;
+            boolean windowed = options.containsKey("window");
+            FlowLogMetrics.Timer parseTimer = metrics.time(FlowLogMetrics.Stage.PARSE);
+            try {
+                if (windowed) {
+                    long windowSeconds = FlowLogWindows.parseDuration(options.get("window"));
+                    long latenessSeconds = options.containsKey("lateness")
+                            ? FlowLogWindows.parseDuration(options.get("lateness")) : windowSeconds;
+                    FlowLogWindows.openWindows(windowSeconds, latenessSeconds); // before the output is truncated
+                    counts = parseFlowLogWindowed(flowLogFile, lookup, outputFile, windowSeconds, latenessSeconds, reportWriter,
+                            format);
+                } else if (flowLogFile.equals("-")) {
+                    counts = parseFlowLog(System.in, lookup, numberOfThreads, format);
+                } else if (Files.isRegularFile(Paths.get(flowLogFile)) && !flowLogFile.endsWith(".gz") && perFileOutputDirectory == null) {
+                    counts = parseFlowLogMapped(flowLogFile, lookup, numberOfThreads, format);
+                } else {
+                    counts = parseFlowLogs(List.of(flowLogFile), lookup, numberOfThreads, ioThreads, perFileOutputDirectory,
+                            reportWriter, format);
+                }
+            } finally {
+                parseTimer.close();
+            }
+            if (!windowed) {
+                writeOutput(outputFile, counts, reportWriter);
+            }
+            if (options.containsKey("summary")) {
+                writeSummary(options.get("summary"), metrics.summary(counts));
+            }
+        } finally {
+            if (progress != null) {
+                progress.shutdownNow();
+            }
+        }
+        System.out.println("Output is written to file : " + outputFile);
+    }
+
+    private static void writeSummary(String summaryFile, String summary) {
+        if (summaryFile.equals("-")) {
+            System.err.println(summary);
+            return;
+        }
+        try {
+            Files.writeString(Paths.get(summaryFile), summary + System.lineSeparator());
+        } catch (IOException e) {
+            System.err.println("Error writing summary file: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void follow(String flowLogFile, CompiledLookupTable lookup, String outputFile, long flushIntervalMillis,
+                               ReportWriter reportWriter, FlowLogFormat format) {
+        FlowLogFollower follower = new FlowLogFollower(Paths.get(flowLogFile), lookup, Paths.get(outputFile),
+                flushIntervalMillis, 200, reportWriter, format);
+        Thread followerThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            follower.stop();
+            try {
+                followerThread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        System.out.println("Following " + flowLogFile + ", output is written to file : " + outputFile);
+        follower.run();
+    }
+
+    static Map<String, String> loadLookupTable(String lookupTableFile) {
+        Map<String, String> lookupTable = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(lookupTableFile))) {
+            String line;
+            boolean firstLine = true;
+            while ((line = br.readLine()) != null) {
+                if (firstLine) {
+                    firstLine = false;
+                    continue;
+                }
+                String[] values = line.split(",");
+                if (values.length == 3) {
+                    String dstPort = values[0].trim().toLowerCase();
+                    String protocol = values[1].trim().toLowerCase();
+                    String tag = values[2].trim();
+                    String key = dstPort + "," + protocol;
+                    lookupTable.put(key, tag);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading lookup table: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+        return lookupTable;
+    }
+
+    static Map<Integer, String> loadProtocolMap(String protocolMapFile) {
+        Map<Integer, String> protocolMap = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(protocolMapFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] values = line.split(",");
+                if (values.length == 2) {
+                    int protocolNumber = Integer.parseInt(values[0].trim());
+                    String protocolName = values[1].trim().toLowerCase();
+                    protocolMap.put(protocolNumber, protocolName);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading protocol map: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+        return protocolMap;
+    }
+
+    static FlowLogCounts parseFlowLogConcurrently(String flowLogFile, CompiledLookupTable lookup) {
+        return parseFlowLogConcurrently(flowLogFile, lookup, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Parses the flow log through a {@link FlowLogPipeline}: one reader feeding {@code numberOfThreads} parsers
+     * through a bounded queue of recycled batches.
+     */
+    static FlowLogCounts parseFlowLogConcurrently(String flowLogFile, CompiledLookupTable lookup, int numberOfThreads) {
+        try (FileChannel channel = FileChannel.open(Paths.get(flowLogFile), StandardOpenOption.READ)) {
+            return new FlowLogPipeline(lookup, numberOfThreads).process(channel);
+        } catch (IOException e) {
+            System.err.println("Error reading flow log file: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    static FlowLogCounts parseFlowLog(ReadableByteChannel source, CompiledLookupTable lookup, int numberOfThreads) {
+        try {
+            return new FlowLogPipeline(lookup, numberOfThreads).process(source);
+        } catch (IOException e) {
+            System.err.println("Error reading flow log: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses the flow log read from {@code in} through a {@link FlowLogPipeline} in the given layout, or in the layout
+     * of its header line if {@code format} is null.
+     */
+    static FlowLogCounts parseFlowLog(InputStream in, CompiledLookupTable lookup, int numberOfThreads, FlowLogFormat format) {
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+            FlowLogFormat layout = format != null ? format : FlowLogFormat.detect(buffered, FlowLogFormat.V2);
+            return new FlowLogPipeline(lookup, numberOfThreads, FlowLogPipeline.DEFAULT_BATCH_SIZE, 2 * numberOfThreads,
+                    () -> new FlowLogCounts(lookup, layout, null, null), FlowLogMetrics.GLOBAL)
+                    .process(Channels.newChannel(buffered));
+        } catch (IOException e) {
+            System.err.println("Error reading flow log: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Counts every file matched by the input specifications (see {@link FlowLogBatch#resolve}) into one result with a
+     * single compiled lookup table, optionally writing each file's own counts below {@code perFileOutputDirectory}
+     * with {@code reportWriter}. With {@code ioThreads} other than 0, small files are read on separate I/O threads
+     * (see {@link FlowLogBatch}). Every file is read in {@code format}, or in the layout of its own header line if it
+     * is null.
+     */
+    static FlowLogCounts parseFlowLogs(List<String> specifications, CompiledLookupTable lookup, int numberOfThreads,
+                                       int ioThreads, Path perFileOutputDirectory, ReportWriter reportWriter,
+                                       FlowLogFormat format) {
+        try {
+            List<FlowLogBatch.Input> inputs = FlowLogBatch.resolve(specifications);
+            return new FlowLogBatch(lookup, numberOfThreads, FlowLogBatch.DEFAULT_SPLIT_SIZE, perFileOutputDirectory,
+                    reportWriter, ioThreads, format).process(inputs);
+        } catch (IOException e) {
+            System.err.println("Error reading flow log files: " + e.getMessage());
+            throw new RuntimeException(e);
+        } catch (UncheckedIOException e) {
+            System.err.println("Error reading flow log files: " + e.getMessage());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Counts the flow log file ({@code .gz} decompressed on the fly), or standard input for {@code -}, into
+     * {@link FlowLogWindows} of {@code windowSeconds}, writing each window to {@code outputFile} with
+     * {@code reportWriter} as soon as it closes. Records are parsed by one thread, in input order, while reading
+     * continues on another. The records are read in {@code format}, or in the layout of the header line if it is
+     * null. Returns the all-time counts.
+     */
+    static FlowLogCounts parseFlowLogWindowed(String flowLogFile, CompiledLookupTable lookup, String outputFile,
+                                              long windowSeconds, long latenessSeconds, ReportWriter reportWriter,
+                                              FlowLogFormat format) {
+        try (FileChannel output = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             InputStream in = new BufferedInputStream(flowLogFile.equals("-") ? System.in
+                     : flowLogFile.endsWith(".gz") ? new GZIPInputStream(Files.newInputStream(Paths.get(flowLogFile)), 1 << 16)
+                     : Files.newInputStream(Paths.get(flowLogFile)), 1 << 16)) {
+            FlowLogFormat layout = format != null ? format : FlowLogFormat.detect(in, FlowLogFormat.V2);
+            FlowLogWindows windows = new FlowLogWindows(lookup, windowSeconds, latenessSeconds, (windowStart, windowEnd, counts) -> {
+                FlowLogMetrics.Timer timer = FlowLogMetrics.GLOBAL.time(FlowLogMetrics.Stage.WRITE);
+                try {
+                    reportWriter.writeWindow(output, windowStart, windowEnd, counts);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    timer.close();
+                }
+            });
+            FlowLogCounts counts = new FlowLogPipeline(lookup, 1, FlowLogPipeline.DEFAULT_BATCH_SIZE, 2,
+                    () -> new FlowLogCounts(lookup, layout, null, windows), FlowLogMetrics.GLOBAL)
+                    .process(Channels.newChannel(in));
+            windows.close();
+            if (windows.droppedRecords() > 0) {
+                System.err.println("Records without a start time or later than the lateness allows, not in any window: "
+                        + windows.droppedRecords());
+            }
+            return counts;
+        } catch (IOException e) {
+            System.err.println("Error reading flow log file: " + e.getMessage());
+            throw new RuntimeException(e);
+        } catch (UncheckedIOException e) {
+            System.err.println("Error writing output file: " + e.getCause().getMessage());
+            throw new RuntimeException(e.getCause());
+        } catch (IllegalStateException e) {
+            if (!(e.getCause() instanceof UncheckedIOException)) {
+                throw e;
+            }
+            System.err.println("Error writing output file: " + e.getCause().getCause().getMessage());
+            throw new RuntimeException(e.getCause().getCause());
+        }
+    }
+
+    static FlowLogCounts parseFlowLogMapped(String flowLogFile, CompiledLookupTable lookup) {
+        return parseFlowLogMapped(flowLogFile, lookup, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Counts the file in parallel mapped chunks, read in {@code format}, or in the layout of its header line if it is
+     * null. The layout is detected once, from the first chunk, as the other chunks start mid-file.
+     */
+    static FlowLogCounts parseFlowLogMapped(String flowLogFile, CompiledLookupTable lookup, int numberOfThreads,
+                                            FlowLogFormat format) {
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        try (FileChannel channel = FileChannel.open(Paths.get(flowLogFile), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int numberOfChunks = (int) Math.max(numberOfThreads, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            long[] boundaries = chunkBoundaries(channel, numberOfChunks);
+            if (boundaries.length < 2) {
+                return counts;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, boundaries.length - 1));
+            try {
+                List<Future<FlowLogCounts>> futures = new ArrayList<>();
+                List<FlowLogCounts> chunkCounts = new ArrayList<>();
+                FlowLogFormat layout = format;
+                for (int i = 0; i < boundaries.length - 1; i++) {
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[i], boundaries[i + 1] - boundaries[i]);
+                    if (layout == null) {
+                        layout = FlowLogFormat.detect(chunk, FlowLogFormat.V2);
+                    }
+                    FlowLogFormat chunkLayout = layout;
+                    futures.add(executor.submit(() -> processChunk(chunk, new FlowLogCounts(lookup, chunkLayout, null, null))));
+                }
+                for (Future<FlowLogCounts> future : futures) {
+                    chunkCounts.add(future.get());
+                }
+                counts.mergeAll(chunkCounts, FlowLogMetrics.GLOBAL);
+            } finally {
+                executor.shutdownNow();
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading flow log file: " + e.getMessage());
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            System.err.println("Error processing flow log chunk: " + e.getCause().getMessage());
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while processing flow log file: " + ex.getMessage());
+            throw new RuntimeException(ex);
+        }
+        return counts;
+    }
+
+    /**
+     * Splits the channel into at most {@code numberOfChunks} byte ranges whose boundaries all fall on line starts.
+     * Returns the boundary offsets, so chunk {@code i} is {@code [boundaries[i], boundaries[i + 1])}.
+     */
+    static long[] chunkBoundaries(FileChannel channel, int numberOfChunks) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        for (int i = 1; i < numberOfChunks; i++) {
+            long previous = boundaries.get(boundaries.size() - 1);
+            long boundary = nextLineStart(channel, Math.max(previous, size * i / numberOfChunks), size);
+            if (boundary > previous && boundary < size) {
+                boundaries.add(boundary);
+            }
+        }
+        if (size > 0) {
+            boundaries.add(size);
+        }
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+            if (i > 0 && result[i] - result[i - 1] > Integer.MAX_VALUE) {
+                throw new IOException("Line too long to map near offset " + result[i - 1]);
+            }
+        }
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = position - 1; // position is already a line start if the byte before it is a newline
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    static FlowLogCounts processChunk(ByteBuffer chunk, CompiledLookupTable lookup) {
+        return processChunk(chunk, new FlowLogCounts(lookup));
+    }
+
+    /**
+     * Processes a mapped chunk into {@code counts} in line-aligned segments of about {@link #SEGMENT_SIZE}, for
+     * timely metrics.
+     */
+    static FlowLogCounts processChunk(ByteBuffer chunk, FlowLogCounts counts) {
+        CompiledLookupTable lookup = counts.lookup();
+        int limit = chunk.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = (int) Math.min(limit, (long) start + SEGMENT_SIZE);
+            while (end < limit && chunk.get(end - 1) != '\n') {
+                end++;
+            }
+            processLines(chunk, start, end, lookup, counts);
+            start = end;
+        }
+        return counts;
+    }
+
+    /**
+     * Processes every line in {@code [start, end)}; the last line does not need a terminating newline. The lines,
+     * skipped lines and bytes of the range are then published to {@link FlowLogMetrics#GLOBAL}.
+     */
+    static void processLines(ByteBuffer buffer, int start, int end, CompiledLookupTable lookup, FlowLogCounts counts) {
+        FlowLogMetrics.LinesEvent event = new FlowLogMetrics.LinesEvent();
+        event.begin();
+        long skipped = counts.skippedLines();
+        long untagged = counts.untaggedLines();
+        long lines = 0;
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = FlowLogTokenizer.indexOf(buffer, lineStart, end, FlowLogTokenizer.NEWLINES);
+            int lineLimit = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            processLine(buffer, lineStart, lineLimit, lookup, counts);
+            lines++;
+            lineStart = lineEnd + 1;
+        }
+        counts.addInputBytes(end - start);
+        FlowLogMetrics.GLOBAL.record(event, lines, counts.skippedLines() - skipped, counts.untaggedLines() - untagged,
+                end - start);
+    }
+
+    static void processLine(String line, CompiledLookupTable lookup, FlowLogCounts counts) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        processLine(ByteBuffer.wrap(bytes), 0, bytes.length, lookup, counts);
+    }
+
+    /**
+     * Processes the record in {@code [start, end)} of {@code buffer} without splitting it into Strings: only the
+     * fields projected by the counters' {@link FlowLogFormat} (in v2, the addresses in fields 4 and 5, dstport in
+     * field 7, protocol in field 8, packets in field 9 and bytes in field 10) are located and parsed in place, and
+     * the line is not scanned past the last of them. The tag is found by the primitive port/protocol key in the
+     * compiled lookup table, and the record is counted in the caller's own counters. Missing or {@code -} packets
+     * and bytes count as zero. If the counters have a {@link RecordSink}, the record is also handed to it through
+     * their reused {@link FlowRecord}; if they have {@link FlowLogWindows}, the start time (field 11 in v2) is
+     * parsed as well and the record is added to its window.
+     */
+    static void processLine(ByteBuffer buffer, int start, int end, CompiledLookupTable lookup, FlowLogCounts counts) {
+        FlowLogFormat format = counts.format();
+        FlowLogWindows windows = counts.windows();
+        int sourceStart = start;
+        int sourceEnd = start;
+        int destinationStart = start;
+        int destinationEnd = start;
+        int portStart = -1;
+        int portEnd = -1;
+        int protocolStart = -1;
+        int protocolEnd = -1;
+        int packetsStart = -1;
+        int packetsEnd = -1;
+        int bytesStart = -1;
+        int bytesEnd = -1;
+        int startTimeStart = -1;
+        int startTimeEnd = -1;
+        int position = start;
+        int ordinal = 0;
+        for (int field = 0, fields = format.projectedFields(windows != null); field < fields; field++) {
+            int target = format.ordinal(field);
+            if (target > ordinal) {
+                position = FlowLogTokenizer.fieldStart(buffer, position, end, target - ordinal);
+                if (position < 0) {
+                    break;
+                }
+            }
+            int fieldEnd = FlowLogTokenizer.fieldEnd(buffer, position, end);
+            switch (format.column(field)) {
+                case FlowLogFormat.SOURCE_ADDRESS:
+                    sourceStart = position;
+                    sourceEnd = fieldEnd;
+                    break;
+                case FlowLogFormat.DESTINATION_ADDRESS:
+                    destinationStart = position;
+                    destinationEnd = fieldEnd;
+                    break;
+                case FlowLogFormat.DESTINATION_PORT:
+                    portStart = position;
+                    portEnd = fieldEnd;
+                    break;
+                case FlowLogFormat.PROTOCOL:
+                    protocolStart = position;
+                    protocolEnd = fieldEnd;
+                    break;
+                case FlowLogFormat.PACKETS:
+                    packetsStart = position;
+                    packetsEnd = fieldEnd;
+                    break;
+                case FlowLogFormat.BYTES:
+                    bytesStart = position;
+                    bytesEnd = fieldEnd;
+                    break;
+                default:
+                    startTimeStart = position;
+                    startTimeEnd = fieldEnd;
+            }
+            if (fieldEnd >= end) {
+                break;
+            }
+            position = fieldEnd + 1;
+            ordinal = target + 1;
+        }
+        if (portStart < 0 || protocolStart < 0) {
+            counts.skip(FlowLogCounts.SkipReason.MISSING_FIELDS);
+            return;
+        }
+
+        long protocolNumber = FlowLogTokenizer.parseInt(buffer, protocolStart, protocolEnd);
+        if (protocolNumber == FlowLogTokenizer.INVALID) {
+            if (!FlowLogTokenizer.hasNonAscii(buffer, protocolStart, protocolEnd)) {
+                counts.skip(FlowLogFormat.isHeaderProtocol(buffer, protocolStart, protocolEnd)
+                        ? FlowLogCounts.SkipReason.HEADER
+                        : FlowLogCounts.SkipReason.INVALID_PROTOCOL); //skip invalid protocol numbers
+                return;
+            }
+            try {
+                protocolNumber = Integer.parseInt(decode(buffer, protocolStart, protocolEnd));
+            } catch (NumberFormatException ex) {
+                counts.skip(FlowLogCounts.SkipReason.INVALID_PROTOCOL);
+                return;
+            }
+        }
+        int protocolId = lookup.protocolId(protocolNumber);
+
+        int portId = FlowLogTokenizer.parsePort(buffer, portStart, portEnd);
+        if (portId < 0) {
+            portId = counts.portId(decode(buffer, portStart, portEnd).toLowerCase());
+        }
+
+        long packets = packetsStart >= 0 ? Math.max(0, FlowLogTokenizer.parseCount(buffer, packetsStart, packetsEnd)) : 0;
+        long bytes = bytesStart >= 0 ? Math.max(0, FlowLogTokenizer.parseCount(buffer, bytesStart, bytesEnd)) : 0;
+
+        int key = CompiledLookupTable.key(portId, protocolId);
+        int tagId = lookup.tagId(key);
+        counts.add(key, tagId, packets, bytes);
+        if (windows != null) {
+            windows.add(startTimeStart >= 0 ? FlowLogTokenizer.parseCount(buffer, startTimeStart, startTimeEnd)
+                    : FlowLogTokenizer.INVALID, counts, key, tagId, packets, bytes);
+        }
+        RecordSink sink = counts.sink();
+        if (sink != null) {
+            sink.accept(counts.record().set(buffer, start, end, sourceStart, sourceEnd, destinationStart, destinationEnd,
+                    portId, protocolNumber, protocolId, tagId, packets, bytes));
+        }
+        if (bytes > 0) {
+            if (isAddress(buffer, sourceStart, sourceEnd)) {
+                counts.sourceAddresses(tagId).add(buffer, sourceStart, sourceEnd, bytes);
+            }
+            if (isAddress(buffer, destinationStart, destinationEnd)) {
+                counts.destinationAddresses(tagId).add(buffer, destinationStart, destinationEnd, bytes);
+            }
+        }
+    }
+
+    /** Returns false for the empty or {@code -} address fields of records without data. */
+    private static boolean isAddress(ByteBuffer buffer, int start, int end) {
+        return end > start && !(end - start == 1 && buffer.get(start) == '-');
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeOutput(String outputFile, Map<String, Long> tagCounts, Map<String, Long> portProtocolCounts) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile))) {
+            writer.println("Tag Counts:");
+            writer.println("Tag,Count");
+            for (Map.Entry<String, Long> entry : tagCounts.entrySet()) {
+                writer.println(entry.getKey() + "," + entry.getValue());
+            }
+
+            writer.println("\nPort/Protocol Combination Counts:");
+            writer.println("Port,Protocol,Count");
+            for (Map.Entry<String, Long> entry : portProtocolCounts.entrySet()) {
+                String[] keyParts = entry.getKey().split(",");
+                if (keyParts.length == 2) {
+                    writer.println(keyParts[0] + "," + keyParts[1] + "," + entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing output file: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the tag and port/protocol counts followed by their packet and byte volumes and the heaviest source and
+     * destination addresses of each tag, as CSV sorted by count. The address weights are upper bounds, exceeding the
+     * true bytes by at most the error column.
+     */
+    static void writeOutput(String outputFile, FlowLogCounts counts) {
+        writeOutput(outputFile, counts, ReportWriter.DEFAULT);
+    }
+
+    /** Writes the report in the writer's format and order; see {@link ReportWriter}. */
+    static void writeOutput(String outputFile, FlowLogCounts counts, ReportWriter writer) {
+        FlowLogMetrics.Timer timer = FlowLogMetrics.GLOBAL.time(FlowLogMetrics.Stage.WRITE);
+        try {
+            writer.write(Paths.get(outputFile), counts);
+        } catch (IOException e) {
+            System.err.println("Error writing output file: " + e.getMessage());
+            throw new RuntimeException(e);
+        } finally {
+            timer.close();
+        }
+    }
+}
@@ -1,12 +1,14 @@
+package flowlogparser;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -84,10 +86,11 @@ class FlowLogParserTest {
         protocolMap.put(17, "udp");
         protocolMap.put(1, "icmp");
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
-
-        FlowLogParser.processLine("src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6", lookupTable, protocolMap, tagCounts, portProtocolCounts);
+        CompiledLookupTable lookup = CompiledLookupTable.compile(lookupTable, protocolMap);
+        FlowLogCounts counts = new FlowLogCounts(lookup);
+        FlowLogParser.processLine("src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6", lookup, counts);
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
 
         assertEquals(1, tagCounts.size());
         assertEquals(1, tagCounts.get("sv_P1"));
@@ -97,14 +100,52 @@ class FlowLogParserTest {
     }
 
     @Test
-    void testParseFlowLogConcurrently() throws IOException {
+    void testProcessLineMatchesSplitSemantics() {
         Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
         Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
+        String[] lines = {
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 +6 extra fields",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 025 6",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 NotAPort 6",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1  6",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 ",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25  6",
+                "src1  dst1 1000 srcport1 dstport1 192.168.1.1 25 6",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 70000 300",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 2147483648",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25",
+                ""
+        };
+        CompiledLookupTable lookup = CompiledLookupTable.compile(lookupTable, protocolMap);
+
+        for (String line : lines) {
+            FlowLogCounts counts = new FlowLogCounts(lookup);
+            FlowLogParser.processLine(line, lookup, counts);
+
+            Map<String, Long> expectedPortProtocolCounts = new HashMap<>();
+            String[] fields = line.split(" ");
+            if (fields.length >= 8) {
+                try {
+                    String protocol = protocolMap.getOrDefault(Integer.parseInt(fields[7]), "UNKNOWN").toLowerCase();
+                    expectedPortProtocolCounts.put(fields[6].toLowerCase() + "," + protocol, 1L);
+                } catch (NumberFormatException ex) {
+                    // skipped, as before
+                }
+            }
+            assertEquals(expectedPortProtocolCounts, counts.portProtocolCounts(), "Mismatch for line: " + line);
+        }
+    }
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
+    @Test
+    void testParseFlowLogConcurrently() throws IOException {
+        Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
+        Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
 
-        FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookupTable, protocolMap, tagCounts, portProtocolCounts);
+        FlowLogCounts counts = FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
 
         assertEquals(7, tagCounts.size());
         assertEquals(2, tagCounts.get("sv_P1"));
@@ -123,13 +164,76 @@ class FlowLogParserTest {
         assertEquals(1, portProtocolCounts.get("0,icmp"));
     }
 
+    @Test
+    void testParseFlowLogMapped() throws IOException {
+        Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
+        Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
+
+        FlowLogCounts counts = FlowLogParser.parseFlowLogMapped(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
+
+        assertEquals(7, tagCounts.size());
+        assertEquals(2, tagCounts.get("sv_P1"));
+        assertEquals(3, tagCounts.get("email"));
+        assertEquals(1, tagCounts.get("Untagged"));
+        assertEquals(12, portProtocolCounts.size());
+        assertEquals(1, portProtocolCounts.get("0,icmp"));
+    }
+
+    @Test
+    void testChunkBoundariesAlignToLines() throws IOException {
+        Files.writeString(flowLogFile, "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6\r\n" +
+                "src2 dst2 1000 srcport2 dstport2 192.168.1.2 68 17\n" +
+                "src3 dst3 1000 srcport3 dstport3 192.168.1.3 23 6");
+        String content = Files.readString(flowLogFile);
+
+        try (FileChannel channel = FileChannel.open(flowLogFile)) {
+            long[] boundaries = FlowLogParser.chunkBoundaries(channel, 16);
+
+            assertEquals(0, boundaries[0]);
+            assertEquals(content.length(), boundaries[boundaries.length - 1]);
+            assertEquals(4, boundaries.length);
+            for (int i = 1; i < boundaries.length - 1; i++) {
+                assertEquals('\n', content.charAt((int) boundaries[i] - 1));
+            }
+        }
+
+        Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
+        Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
+        FlowLogCounts counts = FlowLogParser.parseFlowLogMapped(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
+
+        assertEquals(2, tagCounts.get("sv_P1"));
+        assertEquals(1, tagCounts.get("sv_P2"));
+        assertEquals(1, portProtocolCounts.get("25,tcp"));
+    }
+
+    @Test
+    void testLoneCarriageReturnIsNotALineBreak() throws IOException {
+        Files.writeString(flowLogFile, "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 100 1620140761 1620140821 ACCEPT OK\r"
+                + "2 123456789012 eni-1 10.0.1.202 198.51.100.2 443 68 17 1 100 1620140761 1620140821 ACCEPT OK\r\n"
+                + "2 123456789012 eni-1 10.0.1.203 198.51.100.2 443 68 17 1 100 1620140761 1620140821 ACCEPT OK\n");
+
+        Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
+        Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
+        FlowLogCounts counts = FlowLogParser.parseFlowLogMapped(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+
+        assertEquals(2, counts.lines()); // the first two records are one line, counted as the first record
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 1L), counts.tagCounts());
+    }
+
     @Test
     void testWriteOutput() throws IOException {
-        Map<String, Integer> tagCounts = Map.of("sv_P1", 2, "sv_P2", 1, "email", 3);
-        Map<String, Integer> portProtocolCounts = Map.of("25,tcp", 1, "68,udp", 1, "110,tcp", 1);
+        Map<String, Long> tagCounts = Map.of("sv_P1", 2L, "sv_P2", 1L, "email", 3L);
+        Map<String, Long> portProtocolCounts = Map.of("25,tcp", 1L, "68,udp", 1L, "110,tcp", 1L);
 
         Path outputFile = Files.createTempFile("output", ".txt");
-        FlowLogParser.writeOutput(outputFile.toString(), new ConcurrentHashMap<>(tagCounts), new ConcurrentHashMap<>(portProtocolCounts));
+        FlowLogParser.writeOutput(outputFile.toString(), tagCounts, portProtocolCounts);
 
         String content = Files.readString(outputFile);
 
@@ -141,6 +245,36 @@ class FlowLogParserTest {
         assertTrue(content.contains("68,udp,1"));
     }
 
+    @Test
+    void testWriteOutputVolumesAndTopAddresses() throws IOException {
+        Files.writeString(flowLogFile,
+                "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 25 20000 1620140761 1620140821 ACCEPT OK\n" +
+                "2 123456789012 eni-1 10.0.1.202 198.51.100.2 443 25 6 5 1000 1620140761 1620140821 ACCEPT OK\n" +
+                "2 123456789012 eni-1 2001:db8::7 198.51.100.3 443 25 6 1 50000 1620140761 1620140821 ACCEPT OK\n" +
+                "2 123456789012 eni-1 - - - 68 17 - - 1620140761 1620140821 - NODATA\n" +
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 68 17\n");
+        CompiledLookupTable lookup = CompiledLookupTable.compile(FlowLogParser.loadLookupTable(lookupTableFile.toString()),
+                FlowLogParser.loadProtocolMap(protocolMapFile.toString()));
+        FlowLogCounts counts = FlowLogParser.parseFlowLogMapped(flowLogFile.toString(), lookup, 1, null);
+
+        Path outputFile = Files.createTempFile("output", ".txt");
+        FlowLogParser.writeOutput(outputFile.toString(), counts);
+        String content = Files.readString(outputFile);
+
+        assertTrue(content.startsWith("Tag Counts:\nTag,Count\n"));
+        assertTrue(content.contains("sv_P1,3\n"));
+        assertTrue(content.contains("sv_P2,2\n"));
+        assertTrue(content.contains("Tag Volumes:\nTag,Packets,Bytes\n"));
+        assertTrue(content.contains("sv_P1,31,71000\n"));
+        assertTrue(content.contains("sv_P2,0,0\n"));
+        assertTrue(content.contains("Port,Protocol,Packets,Bytes\n"));
+        assertTrue(content.contains("25,tcp,31,71000\n"));
+        assertTrue(content.contains("Top Source Addresses:\nTag,Address,Bytes,Error\n" +
+                "sv_P1,2001:db8::7,50000,0\nsv_P1,10.0.1.201,20000,0\nsv_P1,10.0.1.202,1000,0\n"));
+        assertTrue(content.contains("Top Destination Addresses:\nTag,Address,Bytes,Error\n" +
+                "sv_P1,198.51.100.3,50000,0\nsv_P1,198.51.100.2,21000,0\n"));
+    }
+
     @Test
     void testDuplicateFlowLogLines() throws IOException {
         String duplicateLines = "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6\n" +
@@ -151,10 +285,10 @@ class FlowLogParserTest {
         Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
         Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
-
-        FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookupTable, protocolMap, tagCounts, portProtocolCounts);
+        FlowLogCounts counts = FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
 
         assertEquals(2, tagCounts.get("sv_P1"));
         assertEquals(1, tagCounts.get("sv_P2"));
@@ -176,12 +310,9 @@ class FlowLogParserTest {
         Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
         Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
-
-        assertDoesNotThrow(() -> {
-            FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookupTable, protocolMap, tagCounts, portProtocolCounts);
-        });
+        CompiledLookupTable lookup = CompiledLookupTable.compile(lookupTable, protocolMap);
+        FlowLogCounts counts = assertDoesNotThrow(() -> FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookup));
+        Map<String, Long> tagCounts = counts.tagCounts();
 
         assertEquals(3, tagCounts.size());
         assertEquals(2, tagCounts.get("Untagged"));
@@ -195,10 +326,10 @@ class FlowLogParserTest {
         Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
         Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
-
-        FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookupTable, protocolMap, tagCounts, portProtocolCounts);
+        FlowLogCounts counts = FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
 
         assertTrue(tagCounts.isEmpty());
         assertTrue(portProtocolCounts.isEmpty());
@@ -214,10 +345,10 @@ class FlowLogParserTest {
         Map<String, String> lookupTable = FlowLogParser.loadLookupTable(lookupTableFile.toString());
         Map<Integer, String> protocolMap = FlowLogParser.loadProtocolMap(protocolMapFile.toString());
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
-
-        FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookupTable, protocolMap, tagCounts, portProtocolCounts);
+        FlowLogCounts counts = FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
 
         assertEquals(1000, tagCounts.get("sv_P1"));
         assertEquals(1000, portProtocolCounts.get("25,tcp"));
@@ -239,8 +370,8 @@ class FlowLogParserTest {
 
         StringBuilder largeFlowLog = new StringBuilder();
         int numberOfLines = 100000; // Approximately 10MB
-        Map<String, Integer> expectedTagCounts = new HashMap<>();
-        Map<String, Integer> expectedPortProtocolCounts = new HashMap<>();
+        Map<String, Long> expectedTagCounts = new HashMap<>();
+        Map<String, Long> expectedPortProtocolCounts = new HashMap<>();
 
         for (int i = 0; i < numberOfLines; i++) {
             int port = (i % 10000) + 1; // Cycle through ports 1-10000
@@ -252,18 +383,18 @@ class FlowLogParserTest {
             largeFlowLog.append(line);
 
             String portProtocolKey = port + "," + (useTcp ? "tcp" : "udp");
-            expectedPortProtocolCounts.merge(portProtocolKey, 1, Integer::sum);
+            expectedPortProtocolCounts.merge(portProtocolKey, 1L, Long::sum);
             String tag = lookupTable.get(portProtocolKey);
-            expectedTagCounts.merge(tag, 1, Integer::sum);
+            expectedTagCounts.merge(tag, 1L, Long::sum);
         }
         Files.writeString(flowLogFile, largeFlowLog.toString());
 
-        ConcurrentHashMap<String, Integer> tagCounts = new ConcurrentHashMap<>();
-        ConcurrentHashMap<String, Integer> portProtocolCounts = new ConcurrentHashMap<>();
-
         // Measure performance
         long startTime = System.currentTimeMillis();
-        FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(), lookupTable, protocolMap, tagCounts, portProtocolCounts);
+        FlowLogCounts counts = FlowLogParser.parseFlowLogConcurrently(flowLogFile.toString(),
+                CompiledLookupTable.compile(lookupTable, protocolMap));
+        Map<String, Long> tagCounts = counts.tagCounts();
+        Map<String, Long> portProtocolCounts = counts.portProtocolCounts();
         long processingTime = System.currentTimeMillis() - startTime;
         System.out.println("Processing time large flow log files " + processingTime + " ms");
 
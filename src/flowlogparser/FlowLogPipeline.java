@@ -0,0 +1,180 @@
+package flowlogparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Reader, parser and aggregator stages for flow logs that arrive as a stream. The calling thread reads the source
+ * into batches of whole lines, the parser threads count each batch into their own {@link FlowLogCounts}, and the
+ * per-thread counts are merged once the source is exhausted.
+ *
+ * <p>Batches are recycled byte buffers: a fixed set of them circulates between a free pool and a bounded work
+ * queue, so the reader blocks when the parsers fall behind and memory stays flat regardless of input size. A line
+ * longer than a batch grows that one buffer. Every batch that is read is processed before {@link #process}
+ * returns; a failure in any stage is rethrown instead of producing partial counts.
+ */
+final class FlowLogPipeline {
+
+    static final int DEFAULT_BATCH_SIZE = 1 << 20;
+
+    private static final ByteBuffer END_OF_INPUT = ByteBuffer.allocate(0);
+    private static final long POLL_MILLIS = 100;
+
+    private final CompiledLookupTable lookup;
+    private final int parallelism;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final Supplier<FlowLogCounts> workerCounts;
+    private final FlowLogMetrics metrics;
+
+    FlowLogPipeline(CompiledLookupTable lookup, int parallelism) {
+        this(lookup, parallelism, DEFAULT_BATCH_SIZE, 2 * parallelism);
+    }
+
+    FlowLogPipeline(CompiledLookupTable lookup, int parallelism, int batchSize, int queueCapacity) {
+        this(lookup, parallelism, batchSize, queueCapacity, () -> new FlowLogCounts(lookup), FlowLogMetrics.GLOBAL);
+    }
+
+    /**
+     * @param workerCounts creates each parser thread's own counters, e.g. with a {@link RecordSink}
+     * @param metrics      records the time of the final merge
+     */
+    FlowLogPipeline(CompiledLookupTable lookup, int parallelism, int batchSize, int queueCapacity,
+                    Supplier<FlowLogCounts> workerCounts, FlowLogMetrics metrics) {
+        if (parallelism < 1 || batchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Parallelism, batch size and queue capacity must be positive");
+        }
+        this.lookup = lookup;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.workerCounts = workerCounts;
+        this.metrics = metrics;
+    }
+
+    FlowLogCounts process(ReadableByteChannel source) throws IOException {
+        // queued batches, one being parsed per parser, plus the batch being filled and the one receiving its tail
+        int bufferCount = queueCapacity + parallelism + 2;
+        BlockingQueue<ByteBuffer> work = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(ByteBuffer.allocate(batchSize));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<FlowLogCounts>> workers = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(executor.submit(() -> parse(work, free)));
+            }
+
+            read(source, work, free, workers);
+            for (int i = 0; i < parallelism; i++) {
+                transfer(END_OF_INPUT, work, workers);
+            }
+
+            List<FlowLogCounts> workerResults = new ArrayList<>();
+            for (Future<FlowLogCounts> worker : workers) {
+                workerResults.add(worker.get());
+            }
+            FlowLogCounts counts = new FlowLogCounts(lookup);
+            counts.mergeAll(workerResults, metrics);
+            return counts;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Flow log parser failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing flow log", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void read(ReadableByteChannel source, BlockingQueue<ByteBuffer> work, BlockingQueue<ByteBuffer> free,
+                      List<Future<FlowLogCounts>> workers) throws IOException, InterruptedException, ExecutionException {
+        ByteBuffer batch = take(free, workers);
+        while (true) {
+            if (!batch.hasRemaining()) {
+                int lastNewline = lastNewline(batch);
+                if (lastNewline < 0) {
+                    batch = ByteBuffer.allocate(batch.capacity() * 2).put(batch.flip());
+                    continue;
+                }
+                int tail = batch.position() - lastNewline - 1;
+                ByteBuffer next = take(free, workers);
+                if (next.capacity() <= tail) {
+                    next = ByteBuffer.allocate(batch.capacity()); // the tail of a grown batch
+                }
+                next.put(batch.array(), lastNewline + 1, tail);
+                batch.flip().limit(lastNewline + 1);
+                transfer(batch, work, workers);
+                batch = next;
+            }
+            if (source.read(batch) < 0) {
+                break;
+            }
+        }
+        if (batch.position() > 0) {
+            transfer(batch.flip(), work, workers);
+        }
+    }
+
+    private FlowLogCounts parse(BlockingQueue<ByteBuffer> work, BlockingQueue<ByteBuffer> free) throws InterruptedException {
+        FlowLogCounts counts = workerCounts.get();
+        while (true) {
+            ByteBuffer batch = work.take();
+            if (batch == END_OF_INPUT) {
+                return counts;
+            }
+            FlowLogParser.processLines(batch, 0, batch.limit(), lookup, counts);
+            batch.clear();
+            free.offer(batch);
+        }
+    }
+
+    private static int lastNewline(ByteBuffer batch) {
+        for (int i = batch.position() - 1; i >= 0; i--) {
+            if (batch.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer take(BlockingQueue<ByteBuffer> free, List<Future<FlowLogCounts>> workers)
+            throws InterruptedException, ExecutionException {
+        ByteBuffer batch;
+        while ((batch = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            checkWorkers(workers);
+        }
+        return batch;
+    }
+
+    private static void transfer(ByteBuffer batch, BlockingQueue<ByteBuffer> work, List<Future<FlowLogCounts>> workers)
+            throws InterruptedException, ExecutionException {
+        while (!work.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkWorkers(workers);
+        }
+    }
+
+    /** Rethrows the failure of a parser that stopped before the end of input, instead of waiting on it forever. */
+    private static void checkWorkers(List<Future<FlowLogCounts>> workers) throws InterruptedException, ExecutionException {
+        for (Future<FlowLogCounts> worker : workers) {
+            if (worker.isDone()) {
+                worker.get();
+                throw new IllegalStateException("Flow log parser stopped before the end of input");
+            }
+        }
+    }
+}
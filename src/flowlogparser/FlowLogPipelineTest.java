@@ -0,0 +1,69 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogPipelineTest {
+
+    private final CompiledLookupTable lookup = CompiledLookupTable.compile(
+            Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"), Map.of(6, "tcp", 17, "udp"));
+
+    private FlowLogCounts process(String flowLog, int parallelism, int batchSize, int queueCapacity) throws IOException {
+        InputStream input = new ByteArrayInputStream(flowLog.getBytes(StandardCharsets.UTF_8));
+        return new FlowLogPipeline(lookup, parallelism, batchSize, queueCapacity).process(Channels.newChannel(input));
+    }
+
+    @Test
+    void testEveryBatchIsCountedThroughSmallQueue() throws IOException {
+        StringBuilder flowLog = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            flowLog.append(i % 4 == 0 ? "src dst 1000 sp dp 10.0.0.1 68 17\n" : "src dst 1000 sp dp 10.0.0.1 25 6\r\n");
+        }
+
+        FlowLogCounts counts = process(flowLog.toString(), 3, 64, 1);
+
+        assertEquals(Map.of("sv_P1", 15000L, "sv_P2", 5000L), counts.tagCounts());
+        assertEquals(Map.of("25,tcp", 15000L, "68,udp", 5000L), counts.portProtocolCounts());
+    }
+
+    @Test
+    void testLinesLongerThanBatchAndMissingFinalNewline() throws IOException {
+        String longLine = "src dst 1000 sp dp 10.0.0.1 25 6 " + "x".repeat(1000) + "\n";
+
+        FlowLogCounts counts = process(longLine + longLine + "src dst 1000 sp dp 10.0.0.1 68 17", 2, 16, 2);
+
+        assertEquals(Map.of("sv_P1", 2L, "sv_P2", 1L), counts.tagCounts());
+    }
+
+    @Test
+    void testEmptyInput() throws IOException {
+        assertTrue(process("", 2, 16, 1).tagCounts().isEmpty());
+    }
+
+    @Test
+    void testReadFailureIsRethrown() {
+        InputStream failing = new InputStream() {
+            private int remaining = 10000;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("disk error");
+                }
+                return remaining % 40 == 0 ? '\n' : ' ';
+            }
+        };
+
+        IOException e = assertThrows(IOException.class,
+                () -> new FlowLogPipeline(lookup, 2, 128, 1).process(Channels.newChannel(failing)));
+        assertEquals("disk error", e.getMessage());
+    }
+}
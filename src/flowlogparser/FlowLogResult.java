@@ -0,0 +1,115 @@
+package flowlogparser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The in-memory result of a {@link FlowLogEngine} run: the merged counts, volumes, top addresses and line
+ * accounting, and the record sinks of the run's parser threads.
+ */
+public final class FlowLogResult {
+
+    private final FlowLogCounts counts;
+    private final List<RecordSink> sinks;
+
+    FlowLogResult(FlowLogCounts counts, List<RecordSink> sinks) {
+        this.counts = counts;
+        this.sinks = sinks;
+    }
+
+    /** Returns the number of records per tag, for tags with at least one record. */
+    public Map<String, Long> tagCounts() {
+        return counts.tagCounts();
+    }
+
+    /** Returns the number of records per {@code "port,protocol"} combination. */
+    public Map<String, Long> portProtocolCounts() {
+        return counts.portProtocolCounts();
+    }
+
+    /** Returns {packets, bytes} per tag. */
+    public Map<String, long[]> tagVolumes() {
+        return counts.tagVolumes();
+    }
+
+    /** Returns {packets, bytes} per {@code "port,protocol"} combination. */
+    public Map<String, long[]> portProtocolVolumes() {
+        return counts.portProtocolVolumes();
+    }
+
+    /**
+     * Returns the tag's heaviest source addresses by bytes, heaviest first. The bytes are upper bounds; see
+     * {@link HeavyHitters}.
+     */
+    public Map<String, Long> topSourceAddresses(String tag) {
+        int tagId = tagId(tag);
+        return tagId < 0 ? Map.of() : addresses(counts.topSourceAddresses(tagId, FlowLogCounts.TOP_ADDRESSES));
+    }
+
+    /** Returns the tag's heaviest destination addresses by bytes, heaviest first. */
+    public Map<String, Long> topDestinationAddresses(String tag) {
+        int tagId = tagId(tag);
+        return tagId < 0 ? Map.of() : addresses(counts.topDestinationAddresses(tagId, FlowLogCounts.TOP_ADDRESSES));
+    }
+
+    /** Returns every line read: tagged, untagged and skipped. */
+    public long lines() {
+        return counts.lines();
+    }
+
+    public long taggedLines() {
+        return counts.taggedLines();
+    }
+
+    public long untaggedLines() {
+        return counts.untaggedLines();
+    }
+
+    public long skippedLines() {
+        return counts.skippedLines();
+    }
+
+    public long inputBytes() {
+        return counts.inputBytes();
+    }
+
+    /** Returns the sinks created for this run, one per parser thread, or an empty list without sinks. */
+    public List<RecordSink> sinks() {
+        return sinks;
+    }
+
+    /**
+     * Writes the report to {@code out}, which is not closed. The format is {@code csv}, {@code jsonl} or
+     * {@code binary}, the order {@code count} or {@code key}; see the command-line options.
+     */
+    public void writeReport(OutputStream out, String format, String order) throws IOException {
+        ReportWriter.of(format, order).write(Channels.newChannel(out), counts);
+        out.flush();
+    }
+
+    FlowLogCounts counts() {
+        return counts;
+    }
+
+    private int tagId(String tag) {
+        CompiledLookupTable lookup = counts.lookup();
+        for (int tagId = 0; tagId < lookup.tagCount(); tagId++) {
+            if (lookup.tag(tagId).equals(tag)) {
+                return tagId;
+            }
+        }
+        return -1;
+    }
+
+    private static Map<String, Long> addresses(List<HeavyHitters.Entry> entries) {
+        Map<String, Long> addresses = new LinkedHashMap<>();
+        for (HeavyHitters.Entry entry : entries) {
+            addresses.put(entry.address, entry.weight);
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,115 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogTokenizerTest {
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testFieldOffsets() {
+        ByteBuffer line = bytes("a bb  ccc d");
+
+        assertEquals(0, FlowLogTokenizer.fieldStart(line, 0, 11, 0));
+        assertEquals(2, FlowLogTokenizer.fieldStart(line, 0, 11, 1));
+        assertEquals(5, FlowLogTokenizer.fieldStart(line, 0, 11, 2)); // empty field between two spaces
+        assertEquals(5, FlowLogTokenizer.fieldEnd(line, 5, 11));
+        assertEquals(6, FlowLogTokenizer.fieldStart(line, 0, 11, 3));
+        assertEquals(10, FlowLogTokenizer.fieldStart(line, 0, 11, 4));
+        assertEquals(-1, FlowLogTokenizer.fieldStart(line, 0, 11, 5));
+    }
+
+    @Test
+    void testParseIntMatchesIntegerParseInt() {
+        String[] inputs = {"0", "6", "+6", "-17", "2147483647", "-2147483648", "2147483648", "", "-", "+", "6a", "0x6"};
+        for (String input : inputs) {
+            long parsed = FlowLogTokenizer.parseInt(bytes(input), 0, input.length());
+            Long expected;
+            try {
+                expected = (long) Integer.parseInt(input);
+            } catch (NumberFormatException ex) {
+                expected = FlowLogTokenizer.INVALID;
+            }
+            assertEquals(expected, parsed, "Mismatch for: " + input);
+        }
+    }
+
+    @Test
+    void testParsePortOnlyAcceptsCanonicalForm() {
+        assertEquals(0, FlowLogTokenizer.parsePort(bytes("0"), 0, 1));
+        assertEquals(443, FlowLogTokenizer.parsePort(bytes("443"), 0, 3));
+        assertEquals(65535, FlowLogTokenizer.parsePort(bytes("65535"), 0, 5));
+        assertEquals(-1, FlowLogTokenizer.parsePort(bytes("65536"), 0, 5));
+        assertEquals(-1, FlowLogTokenizer.parsePort(bytes("025"), 0, 3));
+        assertEquals(-1, FlowLogTokenizer.parsePort(bytes("+25"), 0, 3));
+        assertEquals(-1, FlowLogTokenizer.parsePort(bytes("-"), 0, 1));
+        assertEquals(-1, FlowLogTokenizer.parsePort(bytes(""), 0, 0));
+    }
+
+    @Test
+    void testParseCount() {
+        assertEquals(0, FlowLogTokenizer.parseCount(bytes("0"), 0, 1));
+        assertEquals(123456789012L, FlowLogTokenizer.parseCount(bytes("123456789012"), 0, 12));
+        assertEquals(FlowLogTokenizer.INVALID, FlowLogTokenizer.parseCount(bytes("-"), 0, 1));
+        assertEquals(FlowLogTokenizer.INVALID, FlowLogTokenizer.parseCount(bytes("-5"), 0, 2));
+        assertEquals(FlowLogTokenizer.INVALID, FlowLogTokenizer.parseCount(bytes(""), 0, 0));
+    }
+
+    @Test
+    void testSwarScanningMatchesScalar() {
+        byte[] alphabet = {'a', '0', ' ', ' ', '\n', '\r', (byte) 0xA0, (byte) 0x8A, (byte) 0xFF};
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            byte[] bytes = new byte[random.nextInt(80)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(bytes),
+                    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN),
+                    ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder()).put(bytes).flip()}) {
+                for (int start = 0; start <= bytes.length; start++) {
+                    int end = start + random.nextInt(bytes.length - start + 1);
+                    String range = new String(bytes, StandardCharsets.ISO_8859_1) + " [" + start + ", " + end + ") " + buffer.order();
+                    assertEquals(FlowLogTokenizer.fieldEndScalar(buffer, start, end),
+                            FlowLogTokenizer.fieldEnd(buffer, start, end), range);
+                    assertEquals(FlowLogTokenizer.indexOfScalar(buffer, start, end, (byte) '\n'),
+                            FlowLogTokenizer.indexOf(buffer, start, end, FlowLogTokenizer.NEWLINES), range);
+                    for (int ordinal = 0; ordinal < 12; ordinal++) {
+                        assertEquals(FlowLogTokenizer.fieldStartScalar(buffer, start, end, ordinal),
+                                FlowLogTokenizer.fieldStart(buffer, start, end, ordinal), range + " field " + ordinal);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testSwarFieldOffsetsOfFlowLogRecords() {
+        String[] lines = {
+                "2 123456789012 eni-0a1b2c3d 10.0.1.201 198.51.100.2 443 49153 6 25 20000 1620140761 1620140821 ACCEPT OK",
+                "2 123456789012 eni-4d3c2b1a 192.168.1.100 203.0.113.101 23 49154 6 15 12000 1620140761 1620140821 REJECT OK",
+                "src1 dst1 1000 srcport1 dstport1 192.168.1.1 25 6",
+                "2 123456789012 eni-1 - - - - - - - 1620140761 1620140821 - NODATA",
+                "2 123456789012 eni-1  10.0.1.201 198.51.100.2 443 25 6"};
+        for (String text : lines) {
+            ByteBuffer line = bytes(text);
+            for (int ordinal = 0; ordinal < 16; ordinal++) {
+                int start = FlowLogTokenizer.fieldStartScalar(line, 0, text.length(), ordinal);
+                assertEquals(start, FlowLogTokenizer.fieldStart(line, 0, text.length(), ordinal), text);
+                if (start >= 0) {
+                    assertEquals(text.split(" ", -1)[ordinal],
+                            text.substring(start, FlowLogTokenizer.fieldEnd(line, start, text.length())), text);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package flowlogparser;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Tumbling event-time windows of tag and port/protocol counts, filled in the same pass as the all-time counts. A
+ * record belongs to the window containing its start time (field 11, epoch seconds).
+ *
+ * <p>The watermark is the latest start time seen minus the allowed lateness: a window closes, and is handed to the
+ * {@link Listener}, as soon as the watermark passes its end, and records that arrive for a closed window are dropped
+ * and counted in {@link #droppedRecords}. So at most {@code lateness / window + 2} windows are open at once, which
+ * may not exceed {@link #MAX_OPEN_WINDOWS}; they live in a fixed ring of {@link FlowLogCounts} that are cleared and
+ * reused, and memory does not grow with the time span of the input. Windows without records are not emitted.
+ *
+ * <p>Windows follow the order records are counted in, so an instance is confined to a single parser thread.
+ */
+final class FlowLogWindows {
+
+    /** Receives each window once it has closed; the counts are reused after the call returns. */
+    interface Listener {
+        void windowClosed(long windowStart, long windowEnd, FlowLogCounts counts);
+    }
+
+    /** The most windows the lateness may keep open at once, each with counts of its own. */
+    static final int MAX_OPEN_WINDOWS = 1024;
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private final CompiledLookupTable lookup;
+    private final long windowSeconds;
+    private final long latenessSeconds;
+    private final Listener listener;
+    private final FlowLogCounts[] ring;
+    private final long[] ringWindows;
+    private long latestTime = Long.MIN_VALUE;
+    private long closedBefore = Long.MIN_VALUE;
+    private long latestWindow = FREE;
+    private long droppedRecords;
+
+    FlowLogWindows(CompiledLookupTable lookup, long windowSeconds, long latenessSeconds, Listener listener) {
+        int ringSize = openWindows(windowSeconds, latenessSeconds);
+        this.lookup = lookup;
+        this.windowSeconds = windowSeconds;
+        this.latenessSeconds = latenessSeconds;
+        this.listener = listener;
+        this.ring = new FlowLogCounts[ringSize];
+        this.ringWindows = new long[ringSize];
+        Arrays.fill(ringWindows, FREE);
+    }
+
+    /**
+     * Returns the most windows open at once for a window length and lateness, or throws
+     * {@link IllegalArgumentException} if the window is not positive, the lateness is negative, or the lateness spans
+     * more than {@link #MAX_OPEN_WINDOWS} windows.
+     */
+    static int openWindows(long windowSeconds, long latenessSeconds) {
+        if (windowSeconds < 1 || latenessSeconds < 0) {
+            throw new IllegalArgumentException("Window must be positive and lateness must not be negative");
+        }
+        if (latenessSeconds / windowSeconds + 2 > MAX_OPEN_WINDOWS) {
+            throw new IllegalArgumentException("Lateness of " + latenessSeconds + "s keeps more than "
+                    + MAX_OPEN_WINDOWS + " windows of " + windowSeconds + "s open");
+        }
+        return (int) (latenessSeconds / windowSeconds + 2);
+    }
+
+    /**
+     * Parses a duration such as {@code 90}, {@code 30s}, {@code 5m}, {@code 1h} or {@code 1d} into seconds; a bare
+     * number is seconds.
+     */
+    static long parseDuration(String duration) {
+        String value = duration.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (!value.isEmpty()) {
+            switch (value.charAt(value.length() - 1)) {
+                case 's':
+                    unit = 1;
+                    break;
+                case 'm':
+                    unit = 60;
+                    break;
+                case 'h':
+                    unit = 3600;
+                    break;
+                case 'd':
+                    unit = 86400;
+                    break;
+                default:
+                    unit = 0;
+            }
+        }
+        try {
+            return unit == 0 ? Long.parseLong(value) : Math.multiplyExact(Long.parseLong(value.substring(0, value.length() - 1)), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid duration: " + duration, e);
+        }
+    }
+
+    /**
+     * Adds a record counted in {@code counts} under {@code key} to the window of {@code startTime}, first closing every
+     * window the new watermark has passed. A negative start time (missing or not a number) or one in a closed window
+     * drops the record.
+     */
+    void add(long startTime, FlowLogCounts counts, int key, int tagId, long packets, long bytes) {
+        if (startTime < 0) {
+            droppedRecords++;
+            return;
+        }
+        if (startTime > latestTime) {
+            latestTime = startTime;
+            closeBefore(Math.floorDiv(startTime - latenessSeconds, windowSeconds));
+        }
+        long window = startTime / windowSeconds;
+        if (window < closedBefore) {
+            droppedRecords++;
+            return;
+        }
+        int slot = (int) (window % ring.length);
+        if (ringWindows[slot] != window) {
+            // open windows span fewer than ring.length consecutive windows, so the slot is free
+            if (ring[slot] == null) {
+                ring[slot] = new FlowLogCounts(lookup);
+            }
+            ringWindows[slot] = window;
+            latestWindow = Math.max(latestWindow, window);
+        }
+        ring[slot].add(ring[slot].rekey(counts, key), tagId, packets, bytes);
+    }
+
+    /** Closes every open window, at the end of the input. */
+    void close() {
+        closeBefore(Long.MAX_VALUE);
+    }
+
+    long droppedRecords() {
+        return droppedRecords;
+    }
+
+    /**
+     * Emits and frees the open windows numbered below {@code window}, oldest first, in one pass over the window
+     * numbers that can be open: they follow the latest window opened by less than the ring length.
+     */
+    private void closeBefore(long window) {
+        if (window <= closedBefore) {
+            return;
+        }
+        long first = closedBefore;
+        closedBefore = window;
+        if (latestWindow == FREE) {
+            return;
+        }
+        long from = Math.max(first, latestWindow - ring.length + 1);
+        long to = Math.min(window - 1, latestWindow);
+        for (long i = 0; i <= to - from; i++) {
+            long open = from + i;
+            int slot = (int) (open % ring.length);
+            if (ringWindows[slot] == open) {
+                long windowStart = open * windowSeconds;
+                listener.windowClosed(windowStart, windowStart + windowSeconds, ring[slot]);
+                ring[slot].clear();
+                ringWindows[slot] = FREE;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLogWindowsTest {
+
+    private CompiledLookupTable lookup;
+    private List<String> closed;
+    private FlowLogCounts counts;
+
+    @BeforeEach
+    void setUp() {
+        lookup = CompiledLookupTable.compile(Map.of("25,tcp", "sv_P1", "68,udp", "sv_P2"), Map.of(6, "tcp", 17, "udp"));
+        closed = new ArrayList<>();
+    }
+
+    private FlowLogWindows windows(long windowSeconds, long latenessSeconds) {
+        FlowLogWindows windows = new FlowLogWindows(lookup, windowSeconds, latenessSeconds, (windowStart, windowEnd, window) ->
+                closed.add(windowStart + "-" + windowEnd + " " + window.tagCounts() + " " + window.tagVolumes().get("sv_P1")[1]));
+        counts = new FlowLogCounts(lookup, FlowLogFormat.V2, null, windows);
+        return windows;
+    }
+
+    private void process(long start, long bytes) {
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 " + bytes + " " + start + " "
+                + (start + 30) + " ACCEPT OK", lookup, counts);
+    }
+
+    @Test
+    void testWindowsCloseInOrderAsTheWatermarkPasses() {
+        FlowLogWindows windows = windows(60, 0);
+
+        process(1620140760, 1);
+        process(1620140819, 2);
+        assertTrue(closed.isEmpty());
+        process(1620140820, 4); // next window: the first one closes
+        assertEquals(List.of("1620140760-1620140820 {sv_P1=2} 3"), closed);
+        process(1620141000, 8); // skips two empty windows
+        windows.close();
+
+        assertEquals(List.of("1620140760-1620140820 {sv_P1=2} 3", "1620140820-1620140880 {sv_P1=1} 4",
+                "1620141000-1620141060 {sv_P1=1} 8"), closed);
+        assertEquals(4, counts.tagCounts().get("sv_P1"));
+        assertEquals(0, windows.droppedRecords());
+    }
+
+    @Test
+    void testLateRecordsWithinLatenessAreCounted() {
+        FlowLogWindows windows = windows(60, 90);
+
+        process(1620140770, 1);
+        process(1620140900, 2); // watermark 1620140810: the first window stays open
+        process(1620140790, 4); // late, but within the lateness
+        assertTrue(closed.isEmpty());
+        process(1620140930, 8); // watermark 1620140840: the first window closes
+        process(1620140800, 16); // too late
+        process(1620140850, 32); // late, and its window is still open
+        windows.close();
+
+        assertEquals(List.of("1620140760-1620140820 {sv_P1=2} 5", "1620140820-1620140880 {sv_P1=1} 32",
+                "1620140880-1620140940 {sv_P1=2} 10"), closed);
+        assertEquals(1, windows.droppedRecords());
+        assertEquals(6, counts.tagCounts().get("sv_P1"));
+    }
+
+    @Test
+    void testRingSlotsAreReused() {
+        FlowLogWindows windows = windows(1, 2);
+        for (int second = 0; second < 1000; second++) {
+            process(1620140000L + second, second);
+        }
+        windows.close();
+
+        assertEquals(1000, closed.size());
+        assertEquals("1620140999-1620141000 {sv_P1=1} 999", closed.get(999));
+    }
+
+    @Test
+    void testRecordsWithoutStartTimeAreDropped() {
+        FlowLogWindows windows = windows(60, 0);
+
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 100 - - NODATA", lookup, counts);
+        FlowLogParser.processLine("2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 100", lookup, counts);
+        windows.close();
+
+        assertTrue(closed.isEmpty());
+        assertEquals(2, windows.droppedRecords());
+        assertEquals(2, counts.tagCounts().get("sv_P1"));
+    }
+
+    @Test
+    void testParseFlowLogWindowed() throws IOException {
+        Path flowLogFile = Files.createTempFile("flow_log", ".log");
+        Path outputFile = Files.createTempFile("output", ".jsonl");
+        Files.writeString(flowLogFile, "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 25 6 1 100 1620140761 1620140821 ACCEPT OK\n"
+                + "2 123456789012 eni-1 10.0.1.201 198.51.100.2 443 68 17 1 200 1620141100 1620141121 ACCEPT OK\n");
+
+        FlowLogCounts all = FlowLogParser.parseFlowLogWindowed(flowLogFile.toString(), lookup, outputFile.toString(),
+                300, 0, new ReportWriter(ReportWriter.Format.JSONL, ReportWriter.Order.KEY), null);
+
+        assertEquals(Map.of("sv_P1", 1L, "sv_P2", 1L), all.tagCounts());
+        assertEquals(List.of(
+                "{\"window_start\":1620140700,\"window_end\":1620141000,\"type\":\"tag\",\"tag\":\"sv_P1\",\"count\":1,\"packets\":1,\"bytes\":100}",
+                "{\"window_start\":1620140700,\"window_end\":1620141000,\"type\":\"port_protocol\",\"port\":\"25\",\"protocol\":\"tcp\",\"count\":1,\"packets\":1,\"bytes\":100}",
+                "{\"window_start\":1620141000,\"window_end\":1620141300,\"type\":\"tag\",\"tag\":\"sv_P2\",\"count\":1,\"packets\":1,\"bytes\":200}",
+                "{\"window_start\":1620141000,\"window_end\":1620141300,\"type\":\"port_protocol\",\"port\":\"68\",\"protocol\":\"udp\",\"count\":1,\"packets\":1,\"bytes\":200}"),
+                Files.readAllLines(outputFile));
+    }
+
+    @Test
+    void testParseDuration() {
+        assertEquals(90, FlowLogWindows.parseDuration("90"));
+        assertEquals(30, FlowLogWindows.parseDuration("30s"));
+        assertEquals(300, FlowLogWindows.parseDuration("5m"));
+        assertEquals(3600, FlowLogWindows.parseDuration("1H"));
+        assertEquals(86400, FlowLogWindows.parseDuration("1d"));
+        assertThrows(IllegalArgumentException.class, () -> FlowLogWindows.parseDuration("5w"));
+        assertThrows(IllegalArgumentException.class, () -> FlowLogWindows.parseDuration("m"));
+        assertThrows(IllegalArgumentException.class, () -> new FlowLogWindows(lookup, 0, 0, null));
+        assertThrows(IllegalArgumentException.class, () -> new FlowLogWindows(lookup, 1, 86400, null));
+        assertEquals(FlowLogWindows.MAX_OPEN_WINDOWS,
+                FlowLogWindows.openWindows(60, 60 * (FlowLogWindows.MAX_OPEN_WINDOWS - 2)));
+    }
+}
@@ -0,0 +1,139 @@
+package flowlogparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A parsed flow record as seen by a {@link RecordSink}. One instance per parser thread is refilled for every record,
+ * so reading the primitive fields, the tag and the protocol name allocates nothing; the addresses and the raw line
+ * are exposed as offsets into {@link #buffer()}, with allocating String accessors for convenience. A record must not
+ * be kept after {@link RecordSink#accept} returns.
+ */
+public final class FlowRecord {
+
+    private final FlowLogCounts counts;
+    private final CompiledLookupTable lookup;
+    private ByteBuffer buffer;
+    private int lineStart;
+    private int lineEnd;
+    private int sourceAddressStart;
+    private int sourceAddressEnd;
+    private int destinationAddressStart;
+    private int destinationAddressEnd;
+    private int portId;
+    private long protocol;
+    private int protocolId;
+    private int tagId;
+    private long packets;
+    private long bytes;
+
+    FlowRecord(FlowLogCounts counts) {
+        this.counts = counts;
+        this.lookup = counts.lookup();
+    }
+
+    FlowRecord set(ByteBuffer buffer, int lineStart, int lineEnd, int sourceAddressStart, int sourceAddressEnd,
+                   int destinationAddressStart, int destinationAddressEnd, int portId, long protocol, int protocolId,
+                   int tagId, long packets, long bytes) {
+        this.buffer = buffer;
+        this.lineStart = lineStart;
+        this.lineEnd = lineEnd;
+        this.sourceAddressStart = sourceAddressStart;
+        this.sourceAddressEnd = sourceAddressEnd;
+        this.destinationAddressStart = destinationAddressStart;
+        this.destinationAddressEnd = destinationAddressEnd;
+        this.portId = portId;
+        this.protocol = protocol;
+        this.protocolId = protocolId;
+        this.tagId = tagId;
+        this.packets = packets;
+        this.bytes = bytes;
+        return this;
+    }
+
+    /** Returns the destination port, or -1 if the port field is not a number from 0 to 65535. */
+    public int dstPort() {
+        return CompiledLookupTable.isTextPort(portId) ? -1 : portId;
+    }
+
+    /** Returns the destination port as it is matched against the lookup table, e.g. {@code "443"}. */
+    public String dstPortName() {
+        return counts.portName(portId);
+    }
+
+    /** Returns the protocol number. */
+    public long protocol() {
+        return protocol;
+    }
+
+    /** Returns the protocol name from the protocol map, or {@code "unknown"}. */
+    public String protocolName() {
+        return lookup.protocolName(protocolId);
+    }
+
+    /** Returns the tag from the lookup table, or {@code "Untagged"}. */
+    public String tag() {
+        return lookup.tag(tagId);
+    }
+
+    public boolean isTagged() {
+        return tagId != CompiledLookupTable.UNTAGGED;
+    }
+
+    /** Returns the packets, 0 when the field is missing or {@code -}. */
+    public long packets() {
+        return packets;
+    }
+
+    /** Returns the bytes, 0 when the field is missing or {@code -}. */
+    public long bytes() {
+        return bytes;
+    }
+
+    /** Returns the buffer holding the line; the offsets below index into it. */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int lineStart() {
+        return lineStart;
+    }
+
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    public int sourceAddressStart() {
+        return sourceAddressStart;
+    }
+
+    public int sourceAddressEnd() {
+        return sourceAddressEnd;
+    }
+
+    public int destinationAddressStart() {
+        return destinationAddressStart;
+    }
+
+    public int destinationAddressEnd() {
+        return destinationAddressEnd;
+    }
+
+    public String sourceAddress() {
+        return decode(sourceAddressStart, sourceAddressEnd);
+    }
+
+    public String destinationAddress() {
+        return decode(destinationAddressStart, destinationAddressEnd);
+    }
+
+    public String line() {
+        return decode(lineStart, lineEnd);
+    }
+
+    private String decode(int start, int end) {
+        byte[] text = new byte[end - start];
+        buffer.get(start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,222 @@
+package flowlogparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Weighted frequent-items sketch of the heaviest addresses, in memory fixed by its capacity no matter how many
+ * distinct addresses are offered. Tracked addresses accumulate their weight and untracked ones are added; when the
+ * sketch is full, the median tracked weight is subtracted from every entry, entries that drop to zero are evicted
+ * and the median is added to a shared error. This is the Misra-Gries scheme with batched decrements, as used by the
+ * DataSketches frequent items sketch: each offer costs amortized O(1), and a reported weight (tracked weight plus
+ * error) overestimates the true weight by at most the error. Like DataSketches, the median is estimated from a
+ * sample of the entries, so a purge evicts about half of them and the error stays near {@code 2 * total / capacity}.
+ *
+ * <p>Addresses are keyed by a 64-bit hash of their bytes, read a word at a time, and the text of tracked addresses
+ * is copied into a fixed label store, so offering an address never parses or allocates. Evicted entries are
+ * recycled in place rather than compacted, so labels are only written when an address starts being tracked.
+ * Sketches are mergeable: merging offers each tracked entry of the other sketch and adds its error.
+ */
+final class HeavyHitters {
+
+    static final int MAX_LABEL_LENGTH = 45; // longest textual IPv6 address
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int PURGE_SAMPLE = 15;
+
+    /** One tracked address, as reported. */
+    static final class Entry {
+        final String address;
+        final long weight;
+        final long error;
+
+        Entry(String address, long weight, long error) {
+            this.address = address;
+            this.weight = weight;
+            this.error = error;
+        }
+    }
+
+    private final long[] keys;
+    private final long[] weights; // 0 for a free entry
+    private final long[] purgeScratch;
+    private final byte[] labels;
+    private final byte[] labelLengths;
+    private final int[] freeEntries;
+    private final int[] table; // entry ID + 1 by key hash, 0 for empty
+    private final int mask;
+    private int freeCount;
+    private long error;
+
+    HeavyHitters(int capacity) {
+        this.keys = new long[capacity];
+        this.weights = new long[capacity];
+        this.purgeScratch = new long[Math.min(capacity, PURGE_SAMPLE)];
+        this.labels = new byte[capacity * MAX_LABEL_LENGTH];
+        this.labelLengths = new byte[capacity];
+        this.freeEntries = new int[capacity];
+        this.table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.mask = table.length - 1;
+        for (int entry = 0; entry < capacity; entry++) {
+            freeEntries[entry] = capacity - 1 - entry;
+        }
+        this.freeCount = capacity;
+    }
+
+    /** Offers the address in {@code [start, end)} with the given weight; weights of zero or less are ignored. */
+    void add(ByteBuffer buffer, int start, int end, long weight) {
+        if (weight > 0) {
+            offer(hash(buffer, start, end), buffer, start, Math.min(end - start, MAX_LABEL_LENGTH), weight);
+        }
+    }
+
+    void merge(HeavyHitters other) {
+        ByteBuffer otherLabels = ByteBuffer.wrap(other.labels);
+        for (int entry = 0; entry < other.weights.length; entry++) {
+            if (other.weights[entry] > 0) {
+                offer(other.keys[entry], otherLabels, entry * MAX_LABEL_LENGTH, other.labelLengths[entry], other.weights[entry]);
+            }
+        }
+        error += other.error;
+    }
+
+    /**
+     * Returns up to {@code n} tracked addresses, heaviest first and by address among equal weights. Each weight is an
+     * upper bound that exceeds the true weight by at most the entry's error.
+     */
+    List<Entry> top(int n) {
+        List<Entry> entries = new ArrayList<>(size());
+        for (int entry = 0; entry < weights.length; entry++) {
+            if (weights[entry] > 0) {
+                entries.add(new Entry(address(entry), weights[entry] + error, error));
+            }
+        }
+        entries.sort(Comparator.comparingLong((Entry e) -> e.weight).reversed().thenComparing(e -> e.address));
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    int size() {
+        return weights.length - freeCount;
+    }
+
+    private void offer(long key, ByteBuffer label, int labelStart, int labelLength, long weight) {
+        int bucket = bucket(key);
+        for (; table[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int entry = table[bucket] - 1;
+            if (keys[entry] == key) {
+                weights[entry] += weight;
+                return;
+            }
+        }
+        if (freeCount == 0) {
+            purge();
+            bucket = bucket(key);
+            while (table[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+        }
+        int entry = freeEntries[--freeCount];
+        keys[entry] = key;
+        weights[entry] = weight;
+        label.get(labelStart, labels, entry * MAX_LABEL_LENGTH, labelLength);
+        labelLengths[entry] = (byte) labelLength;
+        table[bucket] = entry + 1;
+    }
+
+    /**
+     * Subtracts the median weight of a sample of entries from every entry, evicting about half of them (and at least
+     * the lighter half of the sample), and rebuilds the table.
+     */
+    private void purge() {
+        for (int i = 0; i < purgeScratch.length; i++) {
+            purgeScratch[i] = weights[(int) ((long) i * weights.length / purgeScratch.length)];
+        }
+        long median = select(purgeScratch, purgeScratch.length / 2);
+        error += median;
+
+        Arrays.fill(table, 0);
+        for (int entry = 0; entry < weights.length; entry++) {
+            long weight = weights[entry] - median;
+            if (weight > 0) {
+                weights[entry] = weight;
+                int bucket = bucket(keys[entry]);
+                while (table[bucket] != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                table[bucket] = entry + 1;
+            } else {
+                weights[entry] = 0;
+                freeEntries[freeCount++] = entry;
+            }
+        }
+    }
+
+    /** Returns the {@code k}-th smallest of {@code values}, reordering them (Hoare's quickselect). */
+    private static long select(long[] values, int k) {
+        int low = 0;
+        int high = values.length - 1;
+        while (low < high) {
+            long pivot = values[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    private String address(int entry) {
+        return new String(labels, entry * MAX_LABEL_LENGTH, labelLengths[entry], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hashes {@code [start, end)} eight bytes at a time; the last word overlaps the previous one rather than being
+     * assembled byte by byte, so typical addresses take two reads.
+     */
+    static long hash(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        long hash = mix(GOLDEN_GAMMA * (length + 1));
+        if (length >= Long.BYTES) {
+            for (int position = start; position < end - Long.BYTES; position += Long.BYTES) {
+                hash = mix(hash ^ buffer.getLong(position));
+            }
+            return mix(hash ^ buffer.getLong(end - Long.BYTES));
+        }
+        long word = 0;
+        for (int position = start; position < end; position++) {
+            word = (word << 8) | (buffer.get(position) & 0xFF);
+        }
+        return mix(hash ^ word);
+    }
+
+    private static long mix(long value) {
+        long h = value * GOLDEN_GAMMA;
+        return h ^ (h >>> 32);
+    }
+
+    private int bucket(long key) {
+        return (int) key & mask;
+    }
+}
@@ -0,0 +1,92 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeavyHittersTest {
+
+    private static void add(HeavyHitters sketch, String address, long weight) {
+        byte[] bytes = address.getBytes(StandardCharsets.UTF_8);
+        sketch.add(ByteBuffer.wrap(bytes), 0, bytes.length, weight);
+    }
+
+    @Test
+    void testExactBelowCapacity() {
+        HeavyHitters sketch = new HeavyHitters(8);
+        add(sketch, "10.0.0.1", 100);
+        add(sketch, "10.0.0.2", 300);
+        add(sketch, "2001:db8::1", 200);
+        add(sketch, "10.0.0.1", 250);
+
+        List<HeavyHitters.Entry> top = sketch.top(10);
+        assertEquals(3, top.size());
+        assertEquals("10.0.0.1", top.get(0).address);
+        assertEquals(350, top.get(0).weight);
+        assertEquals("10.0.0.2", top.get(1).address);
+        assertEquals("2001:db8::1", top.get(2).address);
+        assertEquals(200, top.get(2).weight);
+        assertEquals(0, top.get(2).error);
+        assertEquals(2, sketch.top(2).size());
+    }
+
+    @Test
+    void testHeavyAddressesSurviveManyDistinctAddresses() {
+        HeavyHitters sketch = new HeavyHitters(32);
+        for (int i = 0; i < 100_000; i++) {
+            add(sketch, "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF), 10);
+            if (i % 10 == 0) {
+                add(sketch, "192.168.0.1", 50);
+                add(sketch, "fe80::" + Integer.toHexString(i % 3), 100);
+            }
+        }
+
+        assertTrue(sketch.size() <= 32);
+        List<HeavyHitters.Entry> top = sketch.top(4);
+        assertEquals("192.168.0.1", top.get(0).address);
+        assertTrue(top.get(0).weight >= 500_000);
+        assertTrue(top.get(0).weight - top.get(0).error <= 500_000);
+        assertTrue(top.get(0).error <= 2 * 2_500_000 / 32);
+        assertEquals(List.of("fe80::0", "fe80::1", "fe80::2"),
+                top.subList(1, 4).stream().map(e -> e.address).sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void testMerge() {
+        HeavyHitters first = new HeavyHitters(4);
+        HeavyHitters second = new HeavyHitters(4);
+        add(first, "10.0.0.1", 10);
+        add(first, "10.0.0.2", 20);
+        add(second, "10.0.0.1", 30);
+        add(second, "2001:db8::1", 5);
+
+        first.merge(second);
+
+        List<HeavyHitters.Entry> top = first.top(10);
+        assertEquals(3, top.size());
+        assertEquals("10.0.0.1", top.get(0).address);
+        assertEquals(40, top.get(0).weight);
+        assertEquals("2001:db8::1", top.get(2).address);
+    }
+
+    @Test
+    void testHashDistinguishesAddresses() {
+        Set<Long> hashes = new HashSet<>();
+        for (int i = 0; i < 65536; i++) {
+            byte[] bytes = ("10.0." + (i >> 8) + "." + (i & 0xFF)).getBytes(StandardCharsets.UTF_8);
+            hashes.add(HeavyHitters.hash(ByteBuffer.wrap(bytes), 0, bytes.length));
+        }
+        for (String address : new String[]{"", "-", "1.2.3.4", "2001:db8::1", "2001:db8:85a3::8a2e:370:7334"}) {
+            byte[] bytes = address.getBytes(StandardCharsets.UTF_8);
+            hashes.add(HeavyHitters.hash(ByteBuffer.wrap(bytes), 0, bytes.length));
+        }
+        assertEquals(65536 + 5, hashes.size());
+    }
+}
@@ -0,0 +1,130 @@
+package flowlogparser;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from non-negative int keys to int values, with linear probing and no boxing. Not thread-safe;
+ * instances are either built once and then only read, or confined to a single worker.
+ */
+final class IntIntHashMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private IntIntHashMap(int[] keys, int[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.size = size;
+    }
+
+    /** Writes the hash table as-is, so {@link #read} restores it with two bulk copies instead of re-inserting. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(keys.length);
+        for (int key : keys) {
+            out.writeInt(key);
+        }
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static IntIntHashMap read(ByteBuffer in) {
+        int size = in.getInt();
+        int capacity = in.getInt();
+        if (Integer.bitCount(capacity) != 1 || size < 0 || size * 2L > capacity) {
+            throw new IllegalArgumentException("Corrupt hash table: size " + size + ", capacity " + capacity);
+        }
+        CompiledLookupTable.checkLength(capacity, 2 * Integer.BYTES, 1 << 30, in);
+        int[] keys = new int[capacity];
+        int[] values = new int[capacity];
+        in.asIntBuffer().get(keys);
+        in.position(in.position() + capacity * Integer.BYTES);
+        in.asIntBuffer().get(values);
+        in.position(in.position() + capacity * Integer.BYTES);
+        return new IntIntHashMap(keys, values, size);
+    }
+
+    int get(int key, int defaultValue) {
+        int slot = slot(key);
+        while (true) {
+            int existing = keys[slot];
+            if (existing == key) {
+                return values[slot];
+            }
+            if (existing == EMPTY) {
+                return defaultValue;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void put(int key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                values[slot] = value;
+                rehash();
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Removes every entry, keeping the capacity. */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private int slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package flowlogparser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a {@link CompiledLookupTable}, so repeated runs skip parsing the lookup table CSV. The snapshot
+ * is memory-mapped on load: the tag and port string tables are decoded and the port/protocol index is restored with
+ * bulk copies of its hash table arrays.
+ *
+ * <p>The snapshot records the size, modification time and CRC32 of the lookup table CSV plus a checksum of the
+ * protocol map it was compiled against. It is used only while those still match: a CSV whose modification time
+ * changed but whose checksum did not (e.g. after a {@code touch}) is still accepted. Otherwise the CSV is compiled
+ * again and the snapshot is rewritten atomically.
+ */
+final class LookupTableCache {
+
+    private static final int MAGIC = 0x464C4C54; // "FLLT"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 40;
+    private static final long MODIFIED_OFFSET = 16;
+
+    private LookupTableCache() {
+    }
+
+    static CompiledLookupTable load(Path lookupTableFile, Map<Integer, String> protocolMap, Path cacheFile) {
+        try {
+            long size = Files.size(lookupTableFile);
+            long modified = Files.getLastModifiedTime(lookupTableFile).toMillis();
+            long protocolChecksum = checksum(protocolMap);
+
+            CompiledLookupTable cached = read(cacheFile, lookupTableFile, size, modified, protocolChecksum);
+            if (cached != null) {
+                return cached;
+            }
+            CompiledLookupTable compiled = CompiledLookupTable.compile(
+                    FlowLogParser.loadLookupTable(lookupTableFile.toString()), protocolMap);
+            write(cacheFile, compiled, size, modified, checksum(lookupTableFile), protocolChecksum);
+            return compiled;
+        } catch (IOException e) {
+            System.err.println("Error loading lookup table cache: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Returns the cached table, or null if there is no usable snapshot for the current sources. */
+    private static CompiledLookupTable read(Path cacheFile, Path lookupTableFile, long size, long modified,
+                                            long protocolChecksum) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            long cachedSize = in.getLong();
+            long cachedModified = in.getLong();
+            long cachedChecksum = in.getLong();
+            if (in.getLong() != protocolChecksum || cachedSize != size) {
+                return null;
+            }
+            if (cachedModified != modified) {
+                if (cachedChecksum != checksum(lookupTableFile)) {
+                    return null;
+                }
+                updateModified(cacheFile, modified); // spare the next run the checksum
+            }
+            return CompiledLookupTable.readSnapshot(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring corrupt lookup table cache " + cacheFile + ": " + e);
+            return null;
+        }
+    }
+
+    private static void write(Path cacheFile, CompiledLookupTable compiled, long size, long modified, long checksum,
+                              long protocolChecksum) throws IOException {
+        Path directory = cacheFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeLong(checksum);
+                out.writeLong(protocolChecksum);
+                compiled.writeSnapshot(out);
+            }
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void updateModified(Path cacheFile, long modified) {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, modified), MODIFIED_OFFSET);
+        } catch (IOException e) {
+            System.err.println("Could not update lookup table cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static long checksum(Map<Integer, String> protocolMap) {
+        CRC32 crc = new CRC32();
+        for (Map.Entry<Integer, String> entry : new TreeMap<>(protocolMap).entrySet()) {
+            crc.update((entry.getKey() + "," + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return crc.getValue();
+    }
+}
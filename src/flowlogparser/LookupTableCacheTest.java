@@ -0,0 +1,114 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LookupTableCacheTest {
+
+    private static final Map<Integer, String> PROTOCOL_MAP = Map.of(6, "tcp", 17, "udp", 300, "tcp");
+
+    private Path lookupTableFile;
+    private Path cacheFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("lookup_cache");
+        lookupTableFile = directory.resolve("lookup_table.csv");
+        cacheFile = directory.resolve("lookup_table.bin");
+        Files.writeString(lookupTableFile, "dstport,protocol,tag\n25,tcp,sv_P1\n68,udp,sv_P2\nnotaport,tcp,text\n");
+    }
+
+    private static String tagFor(CompiledLookupTable lookup, String port, int protocolNumber) {
+        return lookup.tag(lookup.tagId(CompiledLookupTable.key(lookup.portId(port), lookup.protocolId(protocolNumber))));
+    }
+
+    /** Rewrites the CSV with same-size content and the original modification time, which only the cache can tell apart. */
+    private void replaceKeepingSizeAndTime(String content) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(lookupTableFile);
+        Files.writeString(lookupTableFile, content);
+        Files.setLastModifiedTime(lookupTableFile, modified);
+    }
+
+    @Test
+    void testSnapshotRoundTrip() throws IOException {
+        CompiledLookupTable compiled = LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+        assertTrue(Files.exists(cacheFile));
+
+        replaceKeepingSizeAndTime("dstport,protocol,tag\n25,tcp,xx_P1\n68,udp,xx_P2\nnotaport,tcp,text\n");
+        CompiledLookupTable cached = LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+
+        assertEquals(compiled.size(), cached.size());
+        assertEquals(compiled.tagCount(), cached.tagCount());
+        assertEquals("sv_P1", tagFor(cached, "25", 6));
+        assertEquals("sv_P1", tagFor(cached, "25", 300));
+        assertEquals("sv_P2", tagFor(cached, "68", 17));
+        assertEquals("text", tagFor(cached, "notaport", 6));
+        assertEquals("Untagged", tagFor(cached, "68", 6));
+    }
+
+    @Test
+    void testRebuiltWhenCsvChanges() throws IOException {
+        LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+
+        Files.writeString(lookupTableFile, "dstport,protocol,tag\n25,tcp,changed\n");
+        assertEquals("changed", tagFor(LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile), "25", 6));
+        assertEquals("changed", tagFor(LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile), "25", 6));
+    }
+
+    @Test
+    void testTouchedCsvWithSameChecksumKeepsSnapshot() throws IOException {
+        LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+        long snapshotSize = Files.size(cacheFile);
+
+        Files.setLastModifiedTime(lookupTableFile, FileTime.fromMillis(Files.getLastModifiedTime(lookupTableFile).toMillis() + 60_000));
+        assertEquals("sv_P1", tagFor(LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile), "25", 6));
+        assertEquals(snapshotSize, Files.size(cacheFile));
+
+        replaceKeepingSizeAndTime("dstport,protocol,tag\n25,tcp,xx_P1\n68,udp,xx_P2\nnotaport,tcp,text\n");
+        assertEquals("sv_P1", tagFor(LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile), "25", 6));
+    }
+
+    @Test
+    void testRebuiltWhenProtocolMapChanges() throws IOException {
+        LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+
+        CompiledLookupTable rebuilt = LookupTableCache.load(lookupTableFile, Map.of(6, "udp", 17, "tcp"), cacheFile);
+        assertEquals("sv_P2", tagFor(rebuilt, "68", 6));
+    }
+
+    @Test
+    void testCorruptSnapshotIsRebuilt() throws IOException {
+        LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+        byte[] snapshot = Files.readAllBytes(cacheFile);
+        Files.write(cacheFile, Arrays.copyOf(snapshot, snapshot.length - 9));
+
+        assertEquals("sv_P2", tagFor(LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile), "68", 17));
+        assertEquals(snapshot.length, Files.size(cacheFile));
+    }
+
+    @Test
+    void testSnapshotWithHugeLengthsIsRebuilt() throws IOException {
+        LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile);
+        byte[] snapshot = Files.readAllBytes(cacheFile);
+
+        // the protocol name count follows the 40-byte header; then the first name's length
+        for (int offset : new int[]{40, 44}) {
+            byte[] corrupt = snapshot.clone();
+            ByteBuffer.wrap(corrupt).putInt(offset, Integer.MAX_VALUE - 8);
+            Files.write(cacheFile, corrupt);
+
+            assertEquals("sv_P2", tagFor(LookupTableCache.load(lookupTableFile, PROTOCOL_MAP, cacheFile), "68", 17));
+            assertArrayEquals(snapshot, Files.readAllBytes(cacheFile));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package flowlogparser;
+
+/**
+ * Receives every counted flow record of a {@link FlowLogEngine} run, as the primitive fields of a reused
+ * {@link FlowRecord}. Each parser thread gets its own sink from the engine's supplier, so a sink is never called
+ * concurrently and can aggregate into plain fields; the engine returns all of them with the result, for the caller to
+ * combine. Skipped lines are not passed on.
+ */
+@FunctionalInterface
+public interface RecordSink {
+
+    /** Called once per record; {@code record} is only valid for the duration of the call. */
+    void accept(FlowRecord record);
+}
@@ -0,0 +1,567 @@
+package flowlogparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Writes a {@link FlowLogCounts} report straight from its primitive counters into a large byte buffer, so no String
+ * is built per row: names are encoded once per tag, protocol and text port, and numbers are written as digits in
+ * place. Rows are sorted deterministically, by count (highest first, ties by key) or by key, so reports from
+ * separate runs can be diffed.
+ *
+ * <p>Three formats are supported:
+ * <ul>
+ *   <li>{@code csv}: the sections of the original text report, one row per line.</li>
+ *   <li>{@code jsonl}: one JSON object per line, with a {@code type} of {@code tag}, {@code port_protocol},
+ *       {@code top_source} or {@code top_destination}.</li>
+ *   <li>{@code binary}: a big-endian columnar layout. A string is an int byte length followed by UTF-8 bytes.
+ *       <pre>
+ * int magic "FLRP", int version
+ * tags:           int n, n strings (tag), long[n] count, long[n] packets, long[n] bytes
+ * protocols:      int m, m strings (protocol name, indexed by protocol ID)
+ * port/protocol:  int n, int[n] port (-1 for a text port), one string per text port in row order,
+ *                 int[n] protocol ID, long[n] count, long[n] packets, long[n] bytes
+ * top sources:    int n, int[n] tag row, n strings (address), long[n] bytes, long[n] error
+ * top destinations: as top sources
+ *       </pre></li>
+ * </ul>
+ *
+ * <p>Time-windowed reports ({@link #writeWindow}) are written one window after another. In {@code csv} each window
+ * starts with a {@code Window:} section holding its start and end, followed by the count and volume sections; in
+ * {@code jsonl} every object also carries {@code window_start} and {@code window_end}; in {@code binary} each window
+ * is a long start and a long end followed by a report in the layout above. Windows track no addresses, so their top
+ * address sections are left out of {@code csv} and empty in {@code binary}.
+ */
+final class ReportWriter {
+
+    enum Format { CSV, JSONL, BINARY }
+
+    enum Order { COUNT, KEY }
+
+    static final ReportWriter DEFAULT = new ReportWriter(Format.CSV, Order.COUNT);
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int MAGIC = 0x464C5250; // "FLRP"
+    private static final int VERSION = 1;
+
+    private final Format format;
+    private final Order order;
+
+    ReportWriter(Format format, Order order) {
+        this.format = format;
+        this.order = order;
+    }
+
+    /** Parses the {@code --output-format} and {@code --sort} option values, e.g. {@code jsonl} and {@code key}. */
+    static ReportWriter of(String format, String order) {
+        return new ReportWriter(Format.valueOf(format.toUpperCase(Locale.ROOT)), Order.valueOf(order.toUpperCase(Locale.ROOT)));
+    }
+
+    void write(Path outputFile, FlowLogCounts counts) throws IOException {
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, counts);
+        }
+    }
+
+    /** Writes the report to {@code channel}, leaving it open. */
+    void write(WritableByteChannel channel, FlowLogCounts counts) throws IOException {
+        write(new Report(counts, channel, null));
+    }
+
+    /** Writes the report of the window {@code [windowStart, windowEnd)} (epoch seconds) to {@code channel}. */
+    void writeWindow(WritableByteChannel channel, long windowStart, long windowEnd, FlowLogCounts counts) throws IOException {
+        write(new Report(counts, channel, new long[]{windowStart, windowEnd}));
+    }
+
+    private void write(Report report) throws IOException {
+        switch (format) {
+            case CSV:
+                report.writeCsv();
+                break;
+            case JSONL:
+                report.writeJsonLines();
+                break;
+            case BINARY:
+                report.writeBinary();
+                break;
+        }
+        report.flush();
+    }
+
+    /** One report being written: the sorted rows, the encoded names, the top addresses and the output buffer. */
+    private final class Report {
+        private final FlowLogCounts counts;
+        private final long[] window;
+        private final CompiledLookupTable lookup;
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] digits = new byte[20];
+        private final int[] tags;
+        private final int[] slots;
+        private final byte[][] tagNames;
+        private final byte[][] protocolNames;
+        private final byte[][] tagJson;
+        private final byte[][] protocolJson;
+        private final IntIntHashMap textPorts = new IntIntHashMap(64);
+        private byte[][] textPortNames = new byte[64][];
+        private byte[][] textPortJson = new byte[64][];
+        private int textPortCount;
+        private List<List<HeavyHitters.Entry>> topSources;
+        private List<List<HeavyHitters.Entry>> topDestinations;
+
+        /** @param window the start and end of the window being reported, or null for an all-time report */
+        Report(FlowLogCounts counts, WritableByteChannel channel, long[] window) {
+            this.counts = counts;
+            this.window = window;
+            this.lookup = counts.lookup();
+            this.channel = channel;
+            this.tagNames = new byte[lookup.tagCount()][];
+            this.protocolNames = new byte[lookup.protocolCount()][];
+            this.tagJson = new byte[lookup.tagCount()][];
+            this.protocolJson = new byte[lookup.protocolCount()][];
+            this.tags = sortedTags();
+            this.slots = sortedSlots();
+        }
+
+        private int[] sortedTags() {
+            int rows = 0;
+            int[] tags = new int[lookup.tagCount()];
+            for (int tagId = 0; tagId < tags.length; tagId++) {
+                if (counts.tagCount(tagId) > 0) {
+                    tags[rows++] = tagId;
+                }
+            }
+            IntBinaryOperator byKey = (a, b) -> lookup.tag(a).compareTo(lookup.tag(b));
+            IntBinaryOperator byCount = (a, b) -> Long.compare(counts.tagCount(b), counts.tagCount(a));
+            return sort(tags, rows, order == Order.COUNT ? thenComparing(byCount, byKey) : byKey);
+        }
+
+        private int[] sortedSlots() {
+            int[] slots = new int[counts.portProtocolSlots()];
+            for (int slot = 0; slot < slots.length; slot++) {
+                slots[slot] = slot;
+            }
+            IntBinaryOperator byKey = (a, b) -> comparePortProtocol(counts.portProtocolKey(a), counts.portProtocolKey(b));
+            IntBinaryOperator byCount = (a, b) -> Long.compare(counts.portProtocolCount(b), counts.portProtocolCount(a));
+            return sort(slots, slots.length, order == Order.COUNT ? thenComparing(byCount, byKey) : byKey);
+        }
+
+        /** Numeric ports first in numeric order, then text ports by text; then by protocol name. */
+        private int comparePortProtocol(int a, int b) {
+            int portA = CompiledLookupTable.portOf(a);
+            int portB = CompiledLookupTable.portOf(b);
+            boolean textA = CompiledLookupTable.isTextPort(portA);
+            boolean textB = CompiledLookupTable.isTextPort(portB);
+            int compare = textA != textB ? Boolean.compare(textA, textB)
+                    : textA ? counts.portName(portA).compareTo(counts.portName(portB)) : Integer.compare(portA, portB);
+            if (compare != 0) {
+                return compare;
+            }
+            return lookup.protocolName(CompiledLookupTable.protocolOf(a)).compareTo(lookup.protocolName(CompiledLookupTable.protocolOf(b)));
+        }
+
+        void writeCsv() throws IOException {
+            if (window != null) {
+                ascii("Window:\nWindow Start,Window End\n").decimal(window[0]).put((byte) ',').decimal(window[1]).ascii("\n\n");
+            }
+            ascii("Tag Counts:\nTag,Count\n");
+            for (int tagId : tags) {
+                put(tagName(tagId)).put((byte) ',').decimal(counts.tagCount(tagId)).put((byte) '\n');
+            }
+
+            ascii("\nPort/Protocol Combination Counts:\nPort,Protocol,Count\n");
+            for (int slot : slots) {
+                if (csvPort(slot)) {
+                    put((byte) ',').decimal(counts.portProtocolCount(slot)).put((byte) '\n');
+                }
+            }
+
+            ascii("\nTag Volumes:\nTag,Packets,Bytes\n");
+            for (int tagId : tags) {
+                put(tagName(tagId)).put((byte) ',').decimal(counts.tagPackets(tagId))
+                        .put((byte) ',').decimal(counts.tagBytes(tagId)).put((byte) '\n');
+            }
+
+            ascii("\nPort/Protocol Volumes:\nPort,Protocol,Packets,Bytes\n");
+            for (int slot : slots) {
+                if (csvPort(slot)) {
+                    put((byte) ',').decimal(counts.portProtocolPackets(slot))
+                            .put((byte) ',').decimal(counts.portProtocolBytes(slot)).put((byte) '\n');
+                }
+            }
+
+            if (window != null) {
+                ascii("\n");
+                return;
+            }
+            for (boolean source : new boolean[]{true, false}) {
+                ascii(source ? "\nTop Source Addresses:\n" : "\nTop Destination Addresses:\n");
+                ascii("Tag,Address,Bytes,Error\n");
+                List<List<HeavyHitters.Entry>> top = topAddresses(source);
+                for (int row = 0; row < tags.length; row++) {
+                    for (HeavyHitters.Entry entry : top.get(row)) {
+                        put(tagName(tags[row])).put((byte) ',');
+                        ascii(entry.address).put((byte) ',').decimal(entry.weight)
+                                .put((byte) ',').decimal(entry.error).put((byte) '\n');
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes {@code port,protocol} for the slot. A port or protocol containing a comma cannot be represented in the
+         * CSV, so such a row is skipped, as the original report did; returns false in that case.
+         */
+        private boolean csvPort(int slot) throws IOException {
+            int key = counts.portProtocolKey(slot);
+            int portId = CompiledLookupTable.portOf(key);
+            int protocolId = CompiledLookupTable.protocolOf(key);
+            boolean textPort = CompiledLookupTable.isTextPort(portId);
+            if (textPort && counts.portName(portId).indexOf(',') >= 0
+                    || lookup.protocolName(protocolId).indexOf(',') >= 0) {
+                return false;
+            }
+            if (textPort) {
+                put(textPortName(portId));
+            } else {
+                decimal(portId);
+            }
+            put((byte) ',').put(protocolName(protocolId));
+            return true;
+        }
+
+        void writeJsonLines() throws IOException {
+            for (int tagId : tags) {
+                object().ascii("\"type\":\"tag\",\"tag\":").put(tagJson(tagId))
+                        .ascii(",\"count\":").decimal(counts.tagCount(tagId))
+                        .ascii(",\"packets\":").decimal(counts.tagPackets(tagId))
+                        .ascii(",\"bytes\":").decimal(counts.tagBytes(tagId)).ascii("}\n");
+            }
+            for (int slot : slots) {
+                int key = counts.portProtocolKey(slot);
+                int portId = CompiledLookupTable.portOf(key);
+                object().ascii("\"type\":\"port_protocol\",\"port\":");
+                if (CompiledLookupTable.isTextPort(portId)) {
+                    put(textPortJson(portId));
+                } else {
+                    put((byte) '"').decimal(portId).put((byte) '"');
+                }
+                ascii(",\"protocol\":").put(protocolJson(CompiledLookupTable.protocolOf(key)))
+                        .ascii(",\"count\":").decimal(counts.portProtocolCount(slot))
+                        .ascii(",\"packets\":").decimal(counts.portProtocolPackets(slot))
+                        .ascii(",\"bytes\":").decimal(counts.portProtocolBytes(slot)).ascii("}\n");
+            }
+            for (boolean source : new boolean[]{true, false}) {
+                List<List<HeavyHitters.Entry>> top = topAddresses(source);
+                for (int row = 0; row < tags.length; row++) {
+                    for (HeavyHitters.Entry entry : top.get(row)) {
+                        object().ascii(source ? "\"type\":\"top_source\",\"tag\":" : "\"type\":\"top_destination\",\"tag\":")
+                                .put(tagJson(tags[row]))
+                                .ascii(",\"address\":").put(json(entry.address))
+                                .ascii(",\"bytes\":").decimal(entry.weight)
+                                .ascii(",\"error\":").decimal(entry.error).ascii("}\n");
+                    }
+                }
+            }
+        }
+
+        /** Opens a JSON object, with the window's start and end in a windowed report. */
+        private Report object() throws IOException {
+            put((byte) '{');
+            if (window != null) {
+                ascii("\"window_start\":").decimal(window[0]).ascii(",\"window_end\":").decimal(window[1]).put((byte) ',');
+            }
+            return this;
+        }
+
+        void writeBinary() throws IOException {
+            if (window != null) {
+                longValue(window[0]);
+                longValue(window[1]);
+            }
+            ensure(8);
+            buffer.putInt(MAGIC).putInt(VERSION);
+
+            intValue(tags.length);
+            for (int tagId : tags) {
+                string(tagName(tagId));
+            }
+            for (int tagId : tags) {
+                longValue(counts.tagCount(tagId));
+            }
+            for (int tagId : tags) {
+                longValue(counts.tagPackets(tagId));
+            }
+            for (int tagId : tags) {
+                longValue(counts.tagBytes(tagId));
+            }
+
+            intValue(lookup.protocolCount());
+            for (int protocolId = 0; protocolId < lookup.protocolCount(); protocolId++) {
+                string(protocolName(protocolId));
+            }
+
+            intValue(slots.length);
+            for (int slot : slots) {
+                int portId = CompiledLookupTable.portOf(counts.portProtocolKey(slot));
+                intValue(CompiledLookupTable.isTextPort(portId) ? -1 : portId);
+            }
+            for (int slot : slots) {
+                int portId = CompiledLookupTable.portOf(counts.portProtocolKey(slot));
+                if (CompiledLookupTable.isTextPort(portId)) {
+                    string(textPortName(portId));
+                }
+            }
+            for (int slot : slots) {
+                intValue(CompiledLookupTable.protocolOf(counts.portProtocolKey(slot)));
+            }
+            for (int slot : slots) {
+                longValue(counts.portProtocolCount(slot));
+            }
+            for (int slot : slots) {
+                longValue(counts.portProtocolPackets(slot));
+            }
+            for (int slot : slots) {
+                longValue(counts.portProtocolBytes(slot));
+            }
+
+            for (boolean source : new boolean[]{true, false}) {
+                List<List<HeavyHitters.Entry>> top = topAddresses(source);
+                int rows = 0;
+                for (List<HeavyHitters.Entry> entries : top) {
+                    rows += entries.size();
+                }
+                intValue(rows);
+                for (int row = 0; row < tags.length; row++) {
+                    for (int i = top.get(row).size(); i > 0; i--) {
+                        intValue(row);
+                    }
+                }
+                for (List<HeavyHitters.Entry> entries : top) {
+                    for (HeavyHitters.Entry entry : entries) {
+                        string(entry.address.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                for (List<HeavyHitters.Entry> entries : top) {
+                    for (HeavyHitters.Entry entry : entries) {
+                        longValue(entry.weight);
+                    }
+                }
+                for (List<HeavyHitters.Entry> entries : top) {
+                    for (HeavyHitters.Entry entry : entries) {
+                        longValue(entry.error);
+                    }
+                }
+            }
+        }
+
+        /** Returns the heaviest addresses of each tag row in one direction, taken from the sketches once per report. */
+        private List<List<HeavyHitters.Entry>> topAddresses(boolean source) {
+            List<List<HeavyHitters.Entry>> top = source ? topSources : topDestinations;
+            if (top == null) {
+                top = new ArrayList<>(tags.length);
+                for (int tagId : tags) {
+                    top.add(source ? counts.topSourceAddresses(tagId, FlowLogCounts.TOP_ADDRESSES)
+                            : counts.topDestinationAddresses(tagId, FlowLogCounts.TOP_ADDRESSES));
+                }
+                if (source) {
+                    topSources = top;
+                } else {
+                    topDestinations = top;
+                }
+            }
+            return top;
+        }
+
+        private byte[] tagName(int tagId) {
+            if (tagNames[tagId] == null) {
+                tagNames[tagId] = lookup.tag(tagId).getBytes(StandardCharsets.UTF_8);
+            }
+            return tagNames[tagId];
+        }
+
+        private byte[] protocolName(int protocolId) {
+            if (protocolNames[protocolId] == null) {
+                protocolNames[protocolId] = lookup.protocolName(protocolId).getBytes(StandardCharsets.UTF_8);
+            }
+            return protocolNames[protocolId];
+        }
+
+        private byte[] tagJson(int tagId) {
+            if (tagJson[tagId] == null) {
+                tagJson[tagId] = json(lookup.tag(tagId));
+            }
+            return tagJson[tagId];
+        }
+
+        private byte[] protocolJson(int protocolId) {
+            if (protocolJson[protocolId] == null) {
+                protocolJson[protocolId] = json(lookup.protocolName(protocolId));
+            }
+            return protocolJson[protocolId];
+        }
+
+        private byte[] textPortName(int portId) {
+            int index = textPort(portId);
+            if (textPortNames[index] == null) {
+                textPortNames[index] = counts.portName(portId).getBytes(StandardCharsets.UTF_8);
+            }
+            return textPortNames[index];
+        }
+
+        private byte[] textPortJson(int portId) {
+            int index = textPort(portId);
+            if (textPortJson[index] == null) {
+                textPortJson[index] = json(counts.portName(portId));
+            }
+            return textPortJson[index];
+        }
+
+        /** Returns the index of a text port's encoded names, which a port shares across its protocols. */
+        private int textPort(int portId) {
+            int index = textPorts.get(portId, -1);
+            if (index < 0) {
+                index = textPortCount++;
+                if (index == textPortNames.length) {
+                    textPortNames = Arrays.copyOf(textPortNames, index * 2);
+                    textPortJson = Arrays.copyOf(textPortJson, index * 2);
+                }
+                textPorts.put(portId, index);
+            }
+            return index;
+        }
+
+        private Report put(byte b) throws IOException {
+            ensure(1);
+            buffer.put(b);
+            return this;
+        }
+
+        private Report put(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) {
+                    channel.write(large);
+                }
+                return this;
+            }
+            ensure(bytes.length);
+            buffer.put(bytes);
+            return this;
+        }
+
+        /** Writes text known to be ASCII, such as section headers, without encoding it. */
+        private Report ascii(String text) throws IOException {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                buffer.put((byte) text.charAt(i));
+            }
+            return this;
+        }
+
+        private Report decimal(long value) throws IOException {
+            if (value < 0) {
+                put((byte) '-');
+                if (value == Long.MIN_VALUE) {
+                    return ascii("9223372036854775808");
+                }
+                value = -value;
+            }
+            int position = digits.length;
+            do {
+                digits[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            ensure(digits.length - position);
+            buffer.put(digits, position, digits.length - position);
+            return this;
+        }
+
+        private void intValue(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void longValue(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void string(byte[] bytes) throws IOException {
+            intValue(bytes.length);
+            put(bytes);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /** Returns {@code text} as a quoted, escaped JSON string. */
+    static byte[] json(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static IntBinaryOperator thenComparing(IntBinaryOperator first, IntBinaryOperator second) {
+        return (a, b) -> {
+            int compare = first.applyAsInt(a, b);
+            return compare != 0 ? compare : second.applyAsInt(a, b);
+        };
+    }
+
+    /** Stable merge sort of {@code items[0, length)} with a primitive comparator; returns the sorted prefix. */
+    static int[] sort(int[] items, int length, IntBinaryOperator comparator) {
+        int[] source = Arrays.copyOf(items, length);
+        int[] target = new int[length];
+        for (int width = 1; width < length; width *= 2) {
+            for (int low = 0; low < length; low += 2 * width) {
+                int middle = Math.min(low + width, length);
+                int high = Math.min(low + 2 * width, length);
+                int i = low;
+                int j = middle;
+                for (int k = low; k < high; k++) {
+                    target[k] = i < middle && (j >= high || comparator.applyAsInt(source[i], source[j]) <= 0)
+                            ? source[i++] : source[j++];
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        return source;
+    }
+}
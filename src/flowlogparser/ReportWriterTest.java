@@ -0,0 +1,196 @@
+package flowlogparser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportWriterTest {
+
+    private CompiledLookupTable lookup;
+    private FlowLogCounts counts;
+    private Path outputFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        lookup = CompiledLookupTable.compile(
+                Map.of("25,tcp", "sv_P1", "443,tcp", "sv_P2", "68,udp", "sv_P2", "http,tcp", "web"),
+                Map.of(6, "tcp", 17, "udp"));
+        counts = new FlowLogCounts(lookup);
+        add(25, 6, 1, 10, 100);
+        add(443, 6, 3, 30, 300);
+        add(68, 17, 2, 20, 200);
+        add(8080, 6, 2, 2, 20);
+        int httpKey = CompiledLookupTable.key(lookup.portId("http"), lookup.protocolId(6));
+        counts.add(httpKey, lookup.tagId(httpKey), 5, 50);
+        addAddress("10.0.0.1", 100);
+        outputFile = Files.createTempFile("report", ".out");
+    }
+
+    private void add(int port, int protocol, int records, long packets, long bytes) {
+        int key = CompiledLookupTable.key(port, lookup.protocolId(protocol));
+        for (int i = 0; i < records; i++) {
+            counts.add(key, lookup.tagId(key), packets / records, bytes / records);
+        }
+    }
+
+    private void addAddress(String address, long bytes) {
+        byte[] text = address.getBytes(StandardCharsets.UTF_8);
+        counts.sourceAddresses(lookup.tagId(CompiledLookupTable.key(25, lookup.protocolId(6))))
+                .add(ByteBuffer.wrap(text), 0, text.length, bytes);
+    }
+
+    private String write(ReportWriter.Format format, ReportWriter.Order order) throws IOException {
+        new ReportWriter(format, order).write(outputFile, counts);
+        return Files.readString(outputFile);
+    }
+
+    @Test
+    void testCsvSortedByCount() throws IOException {
+        String content = write(ReportWriter.Format.CSV, ReportWriter.Order.COUNT);
+
+        assertTrue(content.startsWith("Tag Counts:\nTag,Count\nsv_P2,5\nUntagged,2\nsv_P1,1\nweb,1\n\n"));
+        assertTrue(content.contains("Port/Protocol Combination Counts:\nPort,Protocol,Count\n"
+                + "443,tcp,3\n68,udp,2\n8080,tcp,2\n25,tcp,1\nhttp,tcp,1\n\n"));
+        assertTrue(content.contains("Tag Volumes:\nTag,Packets,Bytes\nsv_P2,50,500\nUntagged,2,20\nsv_P1,10,100\nweb,5,50\n"));
+        assertTrue(content.contains("Top Source Addresses:\nTag,Address,Bytes,Error\nsv_P1,10.0.0.1,100,0\n"));
+        assertEquals(content, write(ReportWriter.Format.CSV, ReportWriter.Order.COUNT));
+    }
+
+    @Test
+    void testCsvSortedByKey() throws IOException {
+        String content = write(ReportWriter.Format.CSV, ReportWriter.Order.KEY);
+
+        assertTrue(content.startsWith("Tag Counts:\nTag,Count\nUntagged,2\nsv_P1,1\nsv_P2,5\nweb,1\n\n"));
+        assertTrue(content.contains("Port,Protocol,Count\n25,tcp,1\n68,udp,2\n443,tcp,3\n8080,tcp,2\nhttp,tcp,1\n\n"));
+    }
+
+    @Test
+    void testJsonLines() throws IOException {
+        List<String> lines = List.of(write(ReportWriter.Format.JSONL, ReportWriter.Order.COUNT).split("\n"));
+
+        assertEquals(4 + 5 + 1, lines.size());
+        assertEquals("{\"type\":\"tag\",\"tag\":\"sv_P2\",\"count\":5,\"packets\":50,\"bytes\":500}", lines.get(0));
+        assertEquals("{\"type\":\"port_protocol\",\"port\":\"443\",\"protocol\":\"tcp\",\"count\":3,\"packets\":30,\"bytes\":300}",
+                lines.get(4));
+        assertEquals("{\"type\":\"port_protocol\",\"port\":\"http\",\"protocol\":\"tcp\",\"count\":1,\"packets\":5,\"bytes\":50}",
+                lines.get(8));
+        assertEquals("{\"type\":\"top_source\",\"tag\":\"sv_P1\",\"address\":\"10.0.0.1\",\"bytes\":100,\"error\":0}",
+                lines.get(9));
+        assertEquals("\"a\\\"b\\\\c\\u0001\"", new String(ReportWriter.json("a\"b\\c\u0001"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTextPortSharedByProtocols() throws IOException {
+        int ftp = counts.portId("ftp");
+        counts.add(CompiledLookupTable.key(ftp, lookup.protocolId(6)), CompiledLookupTable.UNTAGGED);
+        counts.add(CompiledLookupTable.key(ftp, lookup.protocolId(17)), CompiledLookupTable.UNTAGGED);
+
+        String csv = write(ReportWriter.Format.CSV, ReportWriter.Order.KEY);
+        assertTrue(csv.contains("\nftp,tcp,1\nftp,udp,1\nhttp,tcp,1\n"));
+        String jsonLines = write(ReportWriter.Format.JSONL, ReportWriter.Order.KEY);
+        assertTrue(jsonLines.contains("\"port\":\"ftp\",\"protocol\":\"tcp\",\"count\":1,"));
+        assertTrue(jsonLines.contains("\"port\":\"ftp\",\"protocol\":\"udp\",\"count\":1,"));
+    }
+
+    @Test
+    void testBinary() throws IOException {
+        new ReportWriter(ReportWriter.Format.BINARY, ReportWriter.Order.COUNT).write(outputFile, counts);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(outputFile)));
+
+        assertEquals(0x464C5250, in.readInt());
+        assertEquals(1, in.readInt());
+        assertEquals(4, in.readInt());
+        assertEquals("sv_P2", readString(in));
+        assertEquals("Untagged", readString(in));
+        assertEquals("sv_P1", readString(in));
+        assertEquals("web", readString(in));
+        assertArrayEquals(new long[]{5, 2, 1, 1}, readLongs(in, 4));
+        assertArrayEquals(new long[]{50, 2, 10, 5}, readLongs(in, 4));
+        assertArrayEquals(new long[]{500, 20, 100, 50}, readLongs(in, 4));
+
+        int protocols = in.readInt();
+        String[] protocolNames = new String[protocols];
+        for (int i = 0; i < protocols; i++) {
+            protocolNames[i] = readString(in);
+        }
+
+        assertEquals(5, in.readInt());
+        int[] ports = new int[5];
+        for (int i = 0; i < 5; i++) {
+            ports[i] = in.readInt();
+        }
+        assertArrayEquals(new int[]{443, 68, 8080, 25, -1}, ports);
+        assertEquals("http", readString(in));
+        String[] rowProtocols = new String[5];
+        for (int i = 0; i < 5; i++) {
+            rowProtocols[i] = protocolNames[in.readInt()];
+        }
+        assertArrayEquals(new String[]{"tcp", "udp", "tcp", "tcp", "tcp"}, rowProtocols);
+        assertArrayEquals(new long[]{3, 2, 2, 1, 1}, readLongs(in, 5));
+        assertArrayEquals(new long[]{30, 20, 2, 10, 5}, readLongs(in, 5));
+        assertArrayEquals(new long[]{300, 200, 20, 100, 50}, readLongs(in, 5));
+
+        assertEquals(1, in.readInt());
+        assertEquals(2, in.readInt()); // row of sv_P1 in the tag section
+        assertEquals("10.0.0.1", readString(in));
+        assertEquals(100, in.readLong());
+        assertEquals(0, in.readLong());
+        assertEquals(0, in.readInt());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void testWindows() throws IOException {
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ReportWriter.DEFAULT.writeWindow(channel, 60, 120, counts);
+            ReportWriter.DEFAULT.writeWindow(channel, 120, 180, counts);
+        }
+        String content = Files.readString(outputFile);
+
+        assertTrue(content.startsWith("Window:\nWindow Start,Window End\n60,120\n\nTag Counts:\nTag,Count\nsv_P2,5\n"));
+        assertTrue(content.contains("http,tcp,5,50\n\nWindow:\nWindow Start,Window End\n120,180\n\nTag Counts:\n"));
+        assertFalse(content.contains("Top Source Addresses"));
+
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            new ReportWriter(ReportWriter.Format.BINARY, ReportWriter.Order.COUNT).writeWindow(channel, 60, 120, counts);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(outputFile)));
+        assertEquals(60, in.readLong());
+        assertEquals(120, in.readLong());
+        assertEquals(0x464C5250, in.readInt());
+    }
+
+    @Test
+    void testSortIsStable() {
+        int[] items = {5, 3, 9, 1, 7, 2, 8};
+        assertArrayEquals(new int[]{3, 1, 2, 5, 7, 9, 8},
+                ReportWriter.sort(items, items.length, (a, b) -> Integer.compare(a / 4, b / 4)));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long[] readLongs(DataInputStream in, int n) throws IOException {
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+}